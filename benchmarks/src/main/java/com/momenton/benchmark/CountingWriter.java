@@ -0,0 +1,39 @@
+package com.momenton.benchmark;
+
+import java.io.Writer;
+
+/**
+ * Discards everything written to it and only counts the chars, so rendering can be measured
+ *  on outputs too large to be held in memory
+ */
+class CountingWriter extends Writer {
+
+    private long count;
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        count += length;
+    }
+
+    @Override
+    public void write(String string, int offset, int length) {
+        count += length;
+    }
+
+    @Override
+    public void write(String string) {
+        count += string.length();
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    long getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,138 @@
+package com.momenton.benchmark;
+
+import java.util.Random;
+
+/**
+ * The ways a generated organization can be made invalid, one for each of the invalid employee lists
+ *  under src/test/resources/invalid. Each defect breaks a single rule, so the list is rejected for that
+ *  rule only. Defects are applied to the employees in hierarchy order (the CEO first, every manager
+ *  before their subordinates), where the last employee never has subordinates.
+ */
+public enum Defect {
+
+    /** InvalidEmployeeName.json */
+    EMPTY_EMPLOYEE_NAME {
+        @Override
+        void apply(Organization organization, Random random) {
+            organization.names[organization.last()] = "";
+        }
+    },
+
+    /** NullEmployeeName.json */
+    NULL_EMPLOYEE_NAME {
+        @Override
+        void apply(Organization organization, Random random) {
+            organization.names[organization.last()] = null;
+        }
+    },
+
+    /** NullEmployeeId.json */
+    NULL_EMPLOYEE_ID {
+        @Override
+        void apply(Organization organization, Random random) {
+            organization.employeeIds[organization.last()] = null;
+        }
+    },
+
+    /** ZeroEmployeeId.json */
+    ZERO_EMPLOYEE_ID {
+        @Override
+        void apply(Organization organization, Random random) {
+            organization.employeeIds[organization.last()] = 0;
+        }
+    },
+
+    /** NegativeEmployeeId.json */
+    NEGATIVE_EMPLOYEE_ID {
+        @Override
+        void apply(Organization organization, Random random) {
+            int last = organization.last();
+            organization.employeeIds[last] = -organization.employeeIds[last];
+        }
+    },
+
+    /** TwoEmployeesWithSameId.json */
+    DUPLICATE_EMPLOYEE_ID {
+        @Override
+        void apply(Organization organization, Random random) {
+            int last = organization.last();
+            int other;
+            do {
+                other = random.nextInt(last);
+            } while (organization.employeeIds[other].equals(organization.managerIds[last]));
+            organization.employeeIds[last] = organization.employeeIds[other];
+        }
+    },
+
+    /** EmployeeHisOwnManager.json */
+    EMPLOYEE_IS_OWN_MANAGER {
+        @Override
+        void apply(Organization organization, Random random) {
+            int last = organization.last();
+            organization.managerIds[last] = organization.employeeIds[last];
+        }
+    },
+
+    /** InvalidManagerId.json */
+    UNKNOWN_MANAGER_ID {
+        @Override
+        void apply(Organization organization, Random random) {
+            // generated ids go from 1 to the size of the organization
+            organization.managerIds[organization.last()] = organization.size() + 1;
+        }
+    },
+
+    /** TwoEmployeesWithNoManager.json */
+    TWO_CEOS {
+        @Override
+        void apply(Organization organization, Random random) {
+            organization.managerIds[organization.last()] = null;
+        }
+    },
+
+    /** AllEmployeesHaveManagers.json */
+    NO_CEO {
+        @Override
+        void apply(Organization organization, Random random) {
+            organization.managerIds[0] = organization.employeeIds[organization.last()];
+        }
+    },
+
+    /** CEOWithNoSubordinates.json, everyone else reports to each other in a cycle */
+    CEO_WITHOUT_SUBORDINATES {
+        @Override
+        void apply(Organization organization, Random random) {
+            Integer cEOId = organization.employeeIds[0];
+            Integer firstId = organization.employeeIds[1];
+            for (int index = 2; index < organization.size(); index++) {
+                if (cEOId.equals(organization.managerIds[index]))
+                    organization.managerIds[index] = firstId;
+            }
+            // the last employee is now under the first one, directly or indirectly
+            organization.managerIds[1] = organization.employeeIds[organization.last()];
+        }
+    },
+
+    /** OnlyTheCEOInHierarchy.json */
+    ONLY_THE_CEO {
+        @Override
+        void apply(Organization organization, Random random) {
+            organization.truncate(1);
+        }
+    },
+
+    /** EmployeesNotCoveredInHierarchy.json, two employees report to each other */
+    EMPLOYEES_NOT_COVERED {
+        @Override
+        void apply(Organization organization, Random random) {
+            int last = organization.last();
+            organization.managerIds[last - 1] = organization.employeeIds[last];
+            organization.managerIds[last] = organization.employeeIds[last - 1];
+        }
+    };
+
+    // the defects need a CEO and two more employees to work with
+    static final int MINIMUM_SIZE = 3;
+
+    abstract void apply(Organization organization, Random random);
+}
@@ -0,0 +1,162 @@
+package com.momenton.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.Employee;
+import com.momenton.model.EmployeeHierarchy;
+import com.momenton.service.IndexedEmployeeHierarchyService;
+import com.momenton.util.EmployeeBinaryFormat;
+import com.momenton.util.EmployeeHierarchyFormatter;
+import com.momenton.util.FlatHierarchyJson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every stage of a request on generated organizations: validating the list, building the hierarchy,
+ *  reading it from JSON or the binary format, rendering it, serializing the object hierarchy with Jackson
+ *  and writing the binary and flat JSON hierarchies.
+ *
+ * Throughput and sampled latency (with percentiles) are reported for each stage, along with the allocation
+ *  rate when run through BenchmarkMain. Larger organizations can be measured with -p size=10000000,
+ *  which needs a heap of several GB (-jvmArgsAppend -Xmx16g).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xss16m"})
+public class HierarchyBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int size;
+
+    @Param({"FLAT", "BALANCED", "DEEP_CHAIN", "SKEWED"})
+    private OrganizationShape shape;
+
+    // no cache is set, so every call builds the hierarchy again
+    private final IndexedEmployeeHierarchyService service = new IndexedEmployeeHierarchyService();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private List<Employee> employees;
+    private byte[] employeesJson;
+    private byte[] employeesBinary;
+    private CompactHierarchy compactHierarchy;
+    private EmployeeHierarchy employeeHierarchy;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        employees = OrganizationGenerator.generate(shape, size, size);
+        employeesJson = OrganizationGenerator.toJson(employees);
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        EmployeeBinaryFormat.writeEmployees(employees, binary);
+        employeesBinary = binary.toByteArray();
+        compactHierarchy = service.getCompactHierarchy(employees);
+        employeeHierarchy = compactHierarchy.toEmployeeHierarchy();
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return service.isValidList(employees);
+    }
+
+    @Benchmark
+    public CompactHierarchy buildCompactHierarchy() {
+        return service.getCompactHierarchy(employees);
+    }
+
+    @Benchmark
+    public EmployeeHierarchy buildEmployeeHierarchy() {
+        return service.getEmployeeHierarchy(employees);
+    }
+
+    @Benchmark
+    public CompactHierarchy readJson() throws IOException {
+        return service.getCompactHierarchy(new ByteArrayInputStream(employeesJson));
+    }
+
+    @Benchmark
+    public CompactHierarchy readBinary() throws IOException {
+        return service.getCompactHierarchyFromBinary(new ByteArrayInputStream(employeesBinary));
+    }
+
+    @Benchmark
+    public int depth() {
+        return employeeHierarchy.getDepth();
+    }
+
+    // the tables grow with size times depth, so they are counted instead of kept
+    @Benchmark
+    public long renderHTML() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        EmployeeHierarchyFormatter.writeHTMLRepresentation(employeeHierarchy, writer);
+        return writer.getCount();
+    }
+
+    @Benchmark
+    public long renderText() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        EmployeeHierarchyFormatter.writeTextRepresentation(employeeHierarchy, writer);
+        return writer.getCount();
+    }
+
+    @Benchmark
+    public long renderCompactHTML() throws IOException {
+        CountingWriter writer = new CountingWriter();
+        EmployeeHierarchyFormatter.writeHTMLRepresentation(compactHierarchy, writer);
+        return writer.getCount();
+    }
+
+    @Benchmark
+    public long serializeJson() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        mapper.writeValue(output, employeeHierarchy);
+        return output.count;
+    }
+
+    @Benchmark
+    public long writeBinary() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        EmployeeBinaryFormat.writeHierarchy(compactHierarchy, output);
+        return output.count;
+    }
+
+    @Benchmark
+    public long writeFlatJson() throws IOException {
+        CountingOutputStream output = new CountingOutputStream();
+        FlatHierarchyJson.write(compactHierarchy, output);
+        return output.count;
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            count += length;
+        }
+    }
+}
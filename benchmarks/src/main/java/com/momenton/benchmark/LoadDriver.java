@@ -0,0 +1,190 @@
+package com.momenton.benchmark;
+
+import com.momenton.EmployeeHierarchyApp;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the application on a random local port and posts generated organizations to one of its
+ *  web services at increasing concurrency levels. For every level it prints the median and 99th percentile
+ *  latency, the throughput and the highest heap usage seen while the level ran (application and driver
+ *  share the same JVM).
+ *
+ * Arguments are key=value pairs, all optional:
+ *  size=100000 shape=BALANCED endpoint=/getEmployeeHierarchyAsHTML concurrency=1,4,16 requests=200
+ *  defect=NONE (or one of the Defect names, to measure rejected lists) cache=false console=false
+ *
+ *  java -cp target/benchmarks.jar com.momenton.benchmark.LoadDriver size=1000000 concurrency=1,2,4
+ */
+public class LoadDriver {
+
+    private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("size", "100000");
+        DEFAULTS.put("shape", OrganizationShape.BALANCED.name());
+        DEFAULTS.put("endpoint", "/getEmployeeHierarchyAsHTML");
+        DEFAULTS.put("concurrency", "1,4,16");
+        DEFAULTS.put("requests", "200");
+        DEFAULTS.put("defect", "NONE");
+        // every request posts the same list, the hierarchy cache would answer all but the first one
+        DEFAULTS.put("cache", "false");
+        // the web services log every hierarchy to the console, which would drown the report
+        DEFAULTS.put("console", "false");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0 || !DEFAULTS.containsKey(arg.substring(0, separator)))
+                throw new IllegalArgumentException("Unknown argument " + arg + ", expected one of " + DEFAULTS.keySet());
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        int size = Integer.parseInt(options.get("size"));
+        OrganizationShape shape = OrganizationShape.valueOf(options.get("shape"));
+        Defect defect = "NONE".equals(options.get("defect")) ? null : Defect.valueOf(options.get("defect"));
+        int requests = Integer.parseInt(options.get("requests"));
+        int[] levels = Arrays.stream(options.get("concurrency").split(",")).mapToInt(Integer::parseInt).toArray();
+
+        byte[] payload = OrganizationGenerator.generateJson(shape, size, size, defect);
+        PrintStream report = System.out;
+        report.printf("%d employees (%s%s), %d KB per request%n", size, shape,
+                defect == null ? "" : ", " + defect, payload.length / 1024);
+
+        String cacheEntries = Boolean.parseBoolean(options.get("cache")) ? "64" : "0";
+        ConfigurableApplicationContext context = SpringApplication.run(EmployeeHierarchyApp.class,
+                "--server.port=0", "--hierarchy.cache.max-entries=" + cacheEntries);
+        if (!Boolean.parseBoolean(options.get("console")))
+            System.setOut(new PrintStream(new DiscardingOutputStream()));
+        try {
+            URL url = new URL("http://localhost:" + context.getEnvironment().getProperty("local.server.port")
+                    + options.get("endpoint"));
+            // let the JIT compile the request path before measuring
+            run(url, payload, 1, Math.max(requests / 10, 1));
+
+            report.printf("%12s %10s %10s %10s %12s %12s %8s%n",
+                    "concurrency", "p50 ms", "p99 ms", "max ms", "requests/s", "heap MB", "non-200");
+            for (int concurrency : levels) {
+                Result result = run(url, payload, concurrency, requests);
+                report.printf("%12d %10.1f %10.1f %10.1f %12.1f %12d %8d%n", concurrency,
+                        result.percentile(50), result.percentile(99), result.percentile(100),
+                        result.throughput(), result.peakHeapBytes >> 20, result.errors.get());
+            }
+        } finally {
+            System.setOut(report);
+            context.close();
+        }
+    }
+
+    private static Result run(URL url, byte[] payload, int concurrency, int requests) throws Exception {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        Result result = new Result(requests);
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        long start = System.nanoTime();
+        try {
+            Future<?>[] workers = new Future<?>[concurrency];
+            for (int worker = 0; worker < concurrency; worker++) {
+                workers[worker] = executor.submit(() -> {
+                    for (int request = next.getAndIncrement(); request < requests; request = next.getAndIncrement()) {
+                        long requestStart = System.nanoTime();
+                        if (post(url, payload) != HttpURLConnection.HTTP_OK)
+                            result.errors.incrementAndGet();
+                        result.latencies[request] = System.nanoTime() - requestStart;
+                    }
+                    return null;
+                });
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        result.elapsed = System.nanoTime() - start;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                result.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        return result;
+    }
+
+    // posts the payload and reads the whole response, returns the status code
+    private static int post(URL url, byte[] payload) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(payload.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream body = connection.getOutputStream()) {
+            body.write(payload);
+        }
+        int status = connection.getResponseCode();
+        byte[] buffer = new byte[8192];
+        try (InputStream response = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (response != null) {
+                while (response.read(buffer) >= 0) {
+                    // drain the response so the connection can be reused
+                }
+            }
+        }
+        return status;
+    }
+
+    private static class Result {
+
+        private final long[] latencies;
+        private final AtomicInteger errors = new AtomicInteger();
+        private long elapsed;
+        private long peakHeapBytes;
+
+        private Result(int requests) {
+            latencies = new long[requests];
+        }
+
+        // in milliseconds
+        private double percentile(int percentile) {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(index, 0)] / 1e6;
+        }
+
+        private double throughput() {
+            return latencies.length / (elapsed / 1e9);
+        }
+    }
+
+    private static class DiscardingOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.momenton.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.momenton.model.Employee;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The columns of a generated organization in hierarchy order. Unlike Employee objects the fields may be null,
+ *  so any invalid list can be represented.
+ */
+class Organization {
+
+    final String[] names;
+    final Integer[] employeeIds;
+    final Integer[] managerIds;
+    private int size;
+
+    Organization(int size) {
+        this.names = new String[size];
+        this.employeeIds = new Integer[size];
+        this.managerIds = new Integer[size];
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int last() {
+        return size - 1;
+    }
+
+    void truncate(int newSize) {
+        size = Math.min(size, newSize);
+    }
+
+    /**
+     * @return the employees in random order, all fields must be set
+     */
+    List<Employee> toEmployees(Random random) {
+        List<Employee> employees = new ArrayList<>(size);
+        for (int index : shuffledIndexes(random)) {
+            employees.add(new Employee(names[index], employeeIds[index], managerIds[index]));
+        }
+        return employees;
+    }
+
+    /**
+     * @return the employees in random order as the JSON array accepted by the REST web services
+     */
+    byte[] toJson(Random random) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream(size * 64);
+        try (JsonGenerator generator = new JsonFactory().createGenerator(json)) {
+            generator.writeStartArray();
+            for (int index : shuffledIndexes(random)) {
+                generator.writeStartObject();
+                generator.writeStringField("name", names[index]);
+                writeIntegerField(generator, "employeeId", employeeIds[index]);
+                writeIntegerField(generator, "managerId", managerIds[index]);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        return json.toByteArray();
+    }
+
+    private static void writeIntegerField(JsonGenerator generator, String field, Integer value) throws IOException {
+        if (value == null)
+            generator.writeNullField(field);
+        else
+            generator.writeNumberField(field, value);
+    }
+
+    private int[] shuffledIndexes(Random random) {
+        int[] indexes = new int[size];
+        Arrays.setAll(indexes, index -> index);
+        for (int index = size - 1; index > 0; index--) {
+            int other = random.nextInt(index + 1);
+            int swapped = indexes[index];
+            indexes[index] = indexes[other];
+            indexes[other] = swapped;
+        }
+        return indexes;
+    }
+}
@@ -0,0 +1,95 @@
+package com.momenton.benchmark;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.momenton.model.Employee;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates valid or deliberately invalid employee lists of a given size and shape.
+ *  The same arguments always give the same list.
+ */
+public class OrganizationGenerator {
+
+    // To Prevent Creating instances as utility classes should only be called in a static manner
+    private OrganizationGenerator() {
+    }
+
+    /**
+     * @param shape shape of the organization
+     * @param size number of employees
+     * @param seed seed of the random choices
+     *
+     * @return the employees in random order, ids are unique but not in hierarchy order
+     */
+    public static List<Employee> generate(OrganizationShape shape, int size, long seed) {
+        Random random = new Random(seed);
+        return generate(shape, size, random).toEmployees(random);
+    }
+
+    /**
+     * @param shape shape of the organization
+     * @param size number of employees, at least 3 when a defect is applied
+     * @param seed seed of the random choices
+     * @param defect the rule the list breaks, null for a valid list
+     *
+     * @return the employees in random order as the JSON array accepted by the REST web services
+     */
+    public static byte[] generateJson(OrganizationShape shape, int size, long seed, Defect defect) throws IOException {
+        if (defect != null && size < Defect.MINIMUM_SIZE)
+            throw new IllegalArgumentException("Invalid organizations need at least " + Defect.MINIMUM_SIZE + " employees");
+        Random random = new Random(seed);
+        Organization organization = generate(shape, size, random);
+        if (defect != null)
+            defect.apply(organization, random);
+        return organization.toJson(random);
+    }
+
+    /**
+     * @param employees list of employees
+     *
+     * @return the list as the JSON array accepted by the REST web services
+     */
+    public static byte[] toJson(List<Employee> employees) throws IOException {
+        ByteArrayOutputStream json = new ByteArrayOutputStream(employees.size() * 64);
+        try (JsonGenerator generator = new JsonFactory().createGenerator(json)) {
+            generator.writeStartArray();
+            for (Employee employee : employees) {
+                generator.writeStartObject();
+                generator.writeStringField("name", employee.getName());
+                generator.writeNumberField("employeeId", employee.getEmployeeId());
+                if (employee.getManagerId() != null)
+                    generator.writeNumberField("managerId", employee.getManagerId());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+        return json.toByteArray();
+    }
+
+    // the employees in hierarchy order, with ids that are a shuffled range so sorting by id doesn't give that order
+    private static Organization generate(OrganizationShape shape, int size, Random random) {
+        int[] ids = new int[size];
+        for (int index = 0; index < size; index++) {
+            ids[index] = index + 1;
+        }
+        for (int index = size - 1; index > 0; index--) {
+            int other = random.nextInt(index + 1);
+            int id = ids[index];
+            ids[index] = ids[other];
+            ids[other] = id;
+        }
+
+        Organization organization = new Organization(size);
+        for (int index = 0; index < size; index++) {
+            organization.names[index] = "Employee" + ids[index];
+            organization.employeeIds[index] = ids[index];
+            organization.managerIds[index] = index == 0 ? null : ids[shape.chooseManager(index, random)];
+        }
+        return organization;
+    }
+}
@@ -0,0 +1,64 @@
+package com.momenton.benchmark;
+
+import java.util.Random;
+
+/**
+ * The shapes of the generated organizations, each one choosing the manager of every new employee
+ *  among the employees generated before it (the CEO is employee 0)
+ */
+public enum OrganizationShape {
+
+    /**
+     * Everyone reports to the CEO
+     */
+    FLAT {
+        @Override
+        int chooseManager(int index, Random random) {
+            return 0;
+        }
+    },
+
+    /**
+     * Every manager has BRANCHING subordinates, filled level by level
+     */
+    BALANCED {
+        @Override
+        int chooseManager(int index, Random random) {
+            return (index - 1) / BRANCHING;
+        }
+    },
+
+    /**
+     * Chains of CHAIN_LENGTH employees each reporting to the previous one, every chain starts under the CEO.
+     *  Chains are kept to a bounded length, as the table output grows with size times depth.
+     */
+    DEEP_CHAIN {
+        @Override
+        int chooseManager(int index, Random random) {
+            return (index - 1) % CHAIN_LENGTH == 0 ? 0 : index - 1;
+        }
+    },
+
+    /**
+     * Managers are picked at random, biased towards the first employees, so a few managers
+     *  have very large teams while most have none
+     */
+    SKEWED {
+        @Override
+        int chooseManager(int index, Random random) {
+            double bias = random.nextDouble();
+            return (int) (index * bias * bias * bias);
+        }
+    };
+
+    static final int BRANCHING = 8;
+    static final int CHAIN_LENGTH = 1000;
+
+    /**
+     * @param index index of the new employee, at least 1
+     * @param random source of randomness of the generated organization
+     *
+     * @return index of the new employee's manager, lower than the index of the employee
+     */
+    abstract int chooseManager(int index, Random random);
+}
@@ -0,0 +1,59 @@
+package com.momenton.benchmark;
+
+import com.momenton.model.Employee;
+import com.momenton.model.EmployeeHierarchy;
+import com.momenton.service.MomentonEmployeeHierarchyService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the reference service, which searches the whole list for the subordinates of every employee.
+ *  Its cost grows with the square of the size, so it is only run on small organizations,
+ *  to compare against HierarchyBenchmark.buildEmployeeHierarchy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReferenceServiceBenchmark {
+
+    @Param({"1000", "10000"})
+    private int size;
+
+    @Param({"FLAT", "BALANCED", "DEEP_CHAIN", "SKEWED"})
+    private OrganizationShape shape;
+
+    private final MomentonEmployeeHierarchyService service = new MomentonEmployeeHierarchyService();
+
+    private List<Employee> employees;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        employees = OrganizationGenerator.generate(shape, size, size);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return service.isValidList(employees);
+    }
+
+    @Benchmark
+    public EmployeeHierarchy buildEmployeeHierarchy() {
+        return service.getEmployeeHierarchy(employees);
+    }
+}
@@ -0,0 +1,892 @@
+package com.momenton.model;
+
+import com.momenton.util.IntIntHashMap;
+import com.momenton.util.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * A memory compact representation of an organization's hierarchy.
+ *
+ * Instead of one Employee/Manager object per employee, every attribute is kept in its own int array.
+ *  Employees are stored in pre-order (the CEO first, then every manager followed by its subordinates,
+ *  subordinates sorted by Id), so the index of an employee in the arrays is its pre-order position,
+ *  and everyone under an employee is the contiguous range of positions that follows them.
+ *  Names are kept once in a name table and referenced by index.
+ */
+public class CompactHierarchy {
+
+    // manager id of the CEO
+    public static final int NO_MANAGER = 0;
+    // parent position of the CEO, and position of ids that are not in the hierarchy
+    public static final int NO_POSITION = -1;
+
+    private final int[] employeeIds;
+    private final int[] parents;
+    private final int[] levels;
+    private final int[] subtreeSizes;
+    // subordinates of position p are subordinates[subordinateOffsets[p] .. subordinateOffsets[p + 1])
+    private final int[] subordinateOffsets;
+    private final int[] subordinates;
+    private final int[] nameIndexes;
+    private final String[] names;
+    private final int depth;
+    private final int maxSubordinateCount;
+    // ancestors[k][p] is the position 2^k levels above position p, built on first use
+    private volatile int[][] ancestors;
+
+    // employee id -> position
+    private final IntIntHashMap positions;
+
+    private CompactHierarchy(int[] employeeIds, int[] parents, int[] levels, int[] subtreeSizes,
+                             int[] subordinateOffsets, int[] subordinates, int[] nameIndexes, String[] names,
+                             IntIntHashMap positions) {
+        this.employeeIds = employeeIds;
+        this.parents = parents;
+        this.levels = levels;
+        this.subtreeSizes = subtreeSizes;
+        this.subordinateOffsets = subordinateOffsets;
+        this.subordinates = subordinates;
+        this.nameIndexes = nameIndexes;
+        this.names = names;
+        this.positions = positions;
+
+        int maxLevel = 0;
+        for (int level : levels) {
+            maxLevel = Math.max(maxLevel, level);
+        }
+        this.depth = maxLevel + 1;
+
+        int maxCount = 0;
+        for (int position = 0; position < employeeIds.length; position++) {
+            maxCount = Math.max(maxCount, subordinateOffsets[position + 1] - subordinateOffsets[position]);
+        }
+        this.maxSubordinateCount = maxCount;
+    }
+
+    /**
+     * @return number of employees in the hierarchy
+     */
+    public int getSize() {
+        return employeeIds.length;
+    }
+
+    /**
+     * @return number of layers in the hierarchy
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * @return the largest number of direct subordinates of a single employee
+     */
+    public int getMaxSubordinateCount() {
+        return maxSubordinateCount;
+    }
+
+    /**
+     * @param employeeId id of the employee to look for
+     *
+     * @return pre-order position of the employee, or NO_POSITION if the id is not in the hierarchy
+     */
+    public int getPosition(int employeeId) {
+        return positions.get(employeeId);
+    }
+
+    public int getEmployeeId(int position) {
+        return employeeIds[position];
+    }
+
+    /**
+     * @return id of the employee's manager, or NO_MANAGER for the CEO
+     */
+    public int getManagerId(int position) {
+        int parent = parents[position];
+        return parent == NO_POSITION ? NO_MANAGER : employeeIds[parent];
+    }
+
+    public String getName(int position) {
+        return names[nameIndexes[position]];
+    }
+
+    /**
+     * @return index of the employee's name in the name table
+     */
+    public int getNameIndex(int position) {
+        return nameIndexes[position];
+    }
+
+    /**
+     * @param nameIndex index in the name table, between 0 and getNameCount() - 1
+     *
+     * @return the name stored at the given index
+     */
+    public String getNameFromTable(int nameIndex) {
+        return names[nameIndex];
+    }
+
+    /**
+     * @return position of the employee's manager, or NO_POSITION for the CEO
+     */
+    public int getParent(int position) {
+        return parents[position];
+    }
+
+    /**
+     * @return level of the employee (CEO is level 0 Their subordinates are level 1 and so on)
+     */
+    public int getLevel(int position) {
+        return levels[position];
+    }
+
+    /**
+     * @return number of employees under the given one, directly or indirectly, including the employee itself
+     */
+    public int getSubtreeSize(int position) {
+        return subtreeSizes[position];
+    }
+
+    /**
+     * Employees are stored in pre-order, so everyone under an employee directly follows them:
+     *  the position of an employee is their entry number and this is their exit number, and the employees
+     *  under them are exactly the positions in between.
+     *
+     * @return the position right after the last employee under the given one
+     */
+    public int getSubtreeEnd(int position) {
+        return position + subtreeSizes[position];
+    }
+
+    /**
+     * @param position position of the employee
+     * @param managerPosition position of the manager
+     *
+     * @return true if the employee reports to the manager, directly or indirectly
+     */
+    public boolean isUnder(int position, int managerPosition) {
+        return position > managerPosition && position < managerPosition + subtreeSizes[managerPosition];
+    }
+
+    /**
+     * @param position position of the employee
+     *
+     * @return positions of the employee's managers, from the direct manager up to the CEO
+     */
+    public int[] getReportingChain(int position) {
+        int[] chain = new int[levels[position]];
+        for (int index = 0, manager = parents[position]; manager != NO_POSITION; manager = parents[manager]) {
+            chain[index++] = manager;
+        }
+        return chain;
+    }
+
+    /**
+     * Jumps up the reporting chain in powers of two, so it takes O(log depth) whatever the level
+     *
+     * @param position position of the employee
+     * @param level level of the requested manager (CEO is level 0)
+     *
+     * @return position of the employee's manager at the given level, the employee itself at their own level,
+     *  or NO_POSITION if the level is below the employee's
+     */
+    public int getAncestorAtLevel(int position, int level) {
+        if (level < 0 || level > levels[position])
+            return NO_POSITION;
+        int[][] table = getAncestors();
+        int jump = levels[position] - level;
+        for (int power = 0; jump != 0; power++, jump >>>= 1) {
+            if ((jump & 1) != 0)
+                position = table[power][position];
+        }
+        return position;
+    }
+
+    /**
+     * Finds the lowest employee that both given employees report to, directly or indirectly, in O(log depth)
+     *
+     * @param position position of one employee
+     * @param otherPosition position of another employee
+     *
+     * @return position of the lowest common manager, or NO_POSITION if one of them is the CEO
+     */
+    public int getLowestCommonManager(int position, int otherPosition) {
+        // bring both employees to the same level
+        int first = getAncestorAtLevel(position, Math.min(levels[position], levels[otherPosition]));
+        int second = getAncestorAtLevel(otherPosition, levels[first]);
+        if (first != second) {
+            // take the longest jumps that keep them apart, they end up right under the common manager
+            int[][] table = getAncestors();
+            for (int power = table.length - 1; power >= 0; power--) {
+                if (table[power][first] != table[power][second]) {
+                    first = table[power][first];
+                    second = table[power][second];
+                }
+            }
+            first = parents[first];
+        }
+        // an employee is not their own manager, so when one reports to the other take the manager above
+        if (first == position || first == otherPosition)
+            first = parents[first];
+        return first;
+    }
+
+    // built once per hierarchy, racing threads may both build it but the tables are the same
+    private int[][] getAncestors() {
+        int[][] table = ancestors;
+        if (table == null) {
+            // enough powers of two to jump from the deepest level up to the CEO
+            int powers = Math.max(1, 32 - Integer.numberOfLeadingZeros(depth - 1));
+            table = new int[powers][];
+            table[0] = parents;
+            for (int power = 1; power < powers; power++) {
+                int[] half = table[power - 1];
+                int[] full = new int[half.length];
+                for (int position = 0; position < half.length; position++) {
+                    full[position] = half[position] == NO_POSITION ? NO_POSITION : half[half[position]];
+                }
+                table[power] = full;
+            }
+            ancestors = table;
+        }
+        return table;
+    }
+
+    public int getSubordinateCount(int position) {
+        return subordinateOffsets[position + 1] - subordinateOffsets[position];
+    }
+
+    /**
+     * @param position position of the manager
+     * @param index index of the subordinate, subordinates are sorted by Id
+     *
+     * @return position of the subordinate
+     */
+    public int getSubordinate(int position, int index) {
+        return subordinates[subordinateOffsets[position] + index];
+    }
+
+    /**
+     * @return number of distinct names in the name table
+     */
+    public int getNameCount() {
+        return names.length;
+    }
+
+    /**
+     * @return rough number of bytes held by this hierarchy, including the id index and the name table
+     */
+    public long getEstimatedBytes() {
+        // the seven int columns of getColumns(), plus the id index at up to 16 bytes per employee.
+        //  The ancestor table is left out, it is only built by the first ancestor query.
+        long bytes = employeeIds.length * (7L * Integer.BYTES + 16L);
+        for (String name : names) {
+            // String header, char array header, two bytes per char and the table slot
+            bytes += 64L + 2L * (name == null ? 0 : name.length());
+        }
+        return bytes;
+    }
+
+    /**
+     * Compares the employees of both hierarchies by id, manager and name
+     *
+     * @param other another hierarchy
+     *
+     * @return true if both hierarchies hold the same employees
+     */
+    public boolean hasSameEmployees(CompactHierarchy other) {
+        if (other == this)
+            return true;
+        if (other.getSize() != getSize())
+            return false;
+        for (int position = 0; position < getSize(); position++) {
+            int otherPosition = other.getPosition(employeeIds[position]);
+            if (otherPosition == NO_POSITION || other.getManagerId(otherPosition) != getManagerId(position)
+                    || !Objects.equals(other.getName(otherPosition), getName(position)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Creates the object representation of this hierarchy
+     *
+     * @return EmployeeHierarchy with a Manager object for every employee who has subordinates
+     */
+    public EmployeeHierarchy toEmployeeHierarchy() {
+        Employee[] processedEmployees = new Employee[employeeIds.length];
+        // subordinates always come after their manager in pre-order, so create the nodes from the end
+        for (int position = employeeIds.length - 1; position >= 0; position--) {
+            Integer managerId = parents[position] == NO_POSITION ? null : employeeIds[parents[position]];
+            Employee employee = new Employee(getName(position), employeeIds[position], managerId);
+            int from = subordinateOffsets[position];
+            int to = subordinateOffsets[position + 1];
+            if (from == to) { // no subordinates
+                processedEmployees[position] = employee;
+            } else {
+                List<Employee> processedSubordinates = new ArrayList<>(to - from);
+                for (int slot = from; slot < to; slot++) {
+                    processedSubordinates.add(processedEmployees[subordinates[slot]]);
+                }
+                processedEmployees[position] = new Manager(employee, processedSubordinates);
+            }
+        }
+        if (processedEmployees[0].getClass() != Manager.class) // does not have any subordinates
+            throw new RuntimeException("CEO Does not have any subordinates");
+        return new EmployeeHierarchy((Manager) processedEmployees[0]);
+    }
+
+    /**
+     * @return the int columns, in the order they are written to snapshots (see HierarchySnapshot)
+     */
+    int[][] getColumns() {
+        return new int[][]{employeeIds, parents, levels, subtreeSizes, subordinateOffsets, subordinates, nameIndexes};
+    }
+
+    String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Recreates a hierarchy from the columns of another one, only the id index is rebuilt
+     *
+     * @param columns int columns, in the order returned by getColumns()
+     * @param names the name table
+     *
+     * @return hierarchy using the given arrays
+     */
+    static CompactHierarchy fromColumns(int[][] columns, String[] names) {
+        int[] employeeIds = columns[0];
+        IntIntHashMap positions = new IntIntHashMap(employeeIds.length, NO_POSITION);
+        for (int position = 0; position < employeeIds.length; position++) {
+            positions.put(employeeIds[position], position);
+        }
+        return new CompactHierarchy(employeeIds, columns[1], columns[2], columns[3], columns[4], columns[5], columns[6],
+                names, positions);
+    }
+
+    /**
+     * Creates a hierarchy from employees that are in pre-order already, the subordinates of every manager
+     *  sorted by Id, in time linear in their number: nothing is sorted and there is no name table to build
+     *
+     * @param employeeIds employee ids in pre-order, starting with the CEO
+     * @param parents position of each employee's manager, NO_POSITION for the CEO
+     * @param names name of each employee
+     *
+     * @return hierarchy using the given arrays
+     */
+    public static CompactHierarchy fromPreOrder(int[] employeeIds, int[] parents, String[] names) {
+        int size = employeeIds.length;
+        int[] levels = new int[size];
+        int[] subtreeSizes = new int[size];
+        int[] subordinateOffsets = new int[size + 1];
+        int[] nameIndexes = new int[size];
+        IntIntHashMap positions = new IntIntHashMap(size, NO_POSITION);
+        for (int position = 0; position < size; position++) {
+            int parent = parents[position];
+            levels[position] = parent == NO_POSITION ? 0 : levels[parent] + 1;
+            if (parent != NO_POSITION)
+                subordinateOffsets[parent + 1]++;
+            nameIndexes[position] = position;
+            positions.put(employeeIds[position], position);
+        }
+        for (int position = 0; position < size; position++) {
+            subordinateOffsets[position + 1] += subordinateOffsets[position];
+        }
+        // subordinates come after their manager, so walking backwards completes every subtree first
+        for (int position = size - 1; position >= 0; position--) {
+            subtreeSizes[position]++;
+            if (parents[position] != NO_POSITION)
+                subtreeSizes[parents[position]] += subtreeSizes[position];
+        }
+        // walking forwards fills every subordinate group in pre-order, which is by Id
+        int[] subordinates = new int[size - 1];
+        int[] filled = Arrays.copyOf(subordinateOffsets, size);
+        for (int position = 1; position < size; position++) {
+            subordinates[filled[parents[position]]++] = position;
+        }
+        return new CompactHierarchy(employeeIds, parents, levels, subtreeSizes, subordinateOffsets, subordinates,
+                nameIndexes, names, positions);
+    }
+
+    @Override
+    public String toString() {
+        return "CompactHierarchy{" +
+                "size=" + getSize() +
+                ", depth=" + depth +
+                ", names=" + names.length +
+                '}';
+    }
+
+    /**
+     * Collects employees one at a time and arranges them into a CompactHierarchy.
+     *  The employees are expected to be validated already (see EmployeeListValidator).
+     */
+    public static class Builder {
+
+        private final IntList employeeIds;
+        private final IntList managerIds;
+        private final IntList nameIndexes;
+        private final Map<String, Integer> nameTable = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+
+        public Builder() {
+            this(16);
+        }
+
+        /**
+         * @param expectedSize number of employees expected, used to size the columns up front
+         */
+        public Builder(int expectedSize) {
+            employeeIds = new IntList(expectedSize);
+            managerIds = new IntList(expectedSize);
+            nameIndexes = new IntList(expectedSize);
+        }
+
+        /**
+         * @param name employee name
+         * @param employeeId employee id
+         * @param managerId manager id, NO_MANAGER for the CEO
+         *
+         * @return this builder
+         */
+        public Builder add(String name, int employeeId, int managerId) {
+            Integer nameIndex = nameTable.get(name);
+            if (nameIndex == null) {
+                nameIndex = names.size();
+                nameTable.put(name, nameIndex);
+                names.add(name);
+            }
+            employeeIds.add(employeeId);
+            managerIds.add(managerId);
+            nameIndexes.add(nameIndex);
+            return this;
+        }
+
+        /**
+         * @param employee employee to add, a null manager id marks the CEO
+         *
+         * @return this builder
+         */
+        public Builder add(Employee employee) {
+            Integer managerId = employee.getManagerId();
+            return add(employee.getName(), employee.getEmployeeId(), managerId == null ? NO_MANAGER : managerId);
+        }
+
+        public int size() {
+            return employeeIds.size();
+        }
+
+        public int getEmployeeId(int row) {
+            return employeeIds.get(row);
+        }
+
+        /**
+         * @return manager id of the employee in the given row, NO_MANAGER for the CEO
+         */
+        public int getManagerId(int row) {
+            return managerIds.get(row);
+        }
+
+        /**
+         * @return index of the employee's name in the name table
+         */
+        public int getNameIndex(int row) {
+            return nameIndexes.get(row);
+        }
+
+        public String getName(int nameIndex) {
+            return names.get(nameIndex);
+        }
+
+        /**
+         * @return number of distinct names added so far
+         */
+        public int getNameCount() {
+            return names.size();
+        }
+
+        /**
+         * Compares the collected employees with the employees of a hierarchy by id, manager and name
+         *
+         * @param hierarchy a built hierarchy
+         *
+         * @return true if the hierarchy holds the collected employees, assuming their ids are unique
+         *  as in a validated list
+         */
+        public boolean hasSameEmployees(CompactHierarchy hierarchy) {
+            if (hierarchy.getSize() != size())
+                return false;
+            for (int row = 0; row < size(); row++) {
+                int position = hierarchy.getPosition(employeeIds.get(row));
+                if (position == NO_POSITION || hierarchy.getManagerId(position) != managerIds.get(row)
+                        || !Objects.equals(hierarchy.getName(position), names.get(nameIndexes.get(row))))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * Arranges the collected employees in pre-order starting with the CEO
+         *
+         * @return the compact hierarchy, throws RuntimeException if some employees are not under the CEO
+         *  and CancellationException if the calling thread is interrupted
+         */
+        public CompactHierarchy build() {
+            BooleanSupplier cancelled = Thread.currentThread()::isInterrupted;
+            Index index = index(false, cancelled);
+            int size = index.size;
+            int[] rankOffsets = index.rankOffsets;
+            int[] rankSubordinates = index.rankSubordinates;
+
+            // Walk the index from the CEO in pre-order with an explicit stack, pushing subordinates
+            // in reverse so the one with the smallest Id is visited first
+            int[] rankOfPosition = new int[size];
+            int[] parents = new int[size];
+            int[] levels = new int[size];
+            int[] positionOfRank = index.managerRanks; // manager ranks are not needed anymore, reuse the array
+            int[] stack = new int[size];
+            int stackSize = 0;
+            int visited = 0;
+            stack[stackSize++] = index.cEORank;
+            positionOfRank[index.cEORank] = NO_POSITION;
+            while (stackSize > 0) {
+                int rank = stack[--stackSize];
+                int position = visited++;
+                rankOfPosition[position] = rank;
+                int parent = positionOfRank[rank];
+                parents[position] = parent;
+                levels[position] = parent == NO_POSITION ? 0 : levels[parent] + 1;
+                for (int slot = rankOffsets[rank + 1] - 1; slot >= rankOffsets[rank]; slot--) {
+                    int subordinate = rankSubordinates[slot];
+                    // until visited, the array holds the position of the subordinate's manager
+                    positionOfRank[subordinate] = position;
+                    stack[stackSize++] = subordinate;
+                }
+            }
+            stack = null;
+
+            // some employees are not covered in the hierarchy
+            if (visited != size)
+                throw new RuntimeException("Some Employees are out of the hierarchy");
+            checkCancelled(cancelled);
+
+            // lay out the columns in pre-order
+            IntIntHashMap positions = index.ranks;
+            int[] ids = new int[size];
+            int[] nameIndexesByPosition = new int[size];
+            int[] subtreeSizes = new int[size];
+            int[] subordinateOffsets = new int[size + 1];
+            for (int position = 0; position < size; position++) {
+                int row = index.rowOfRank[rankOfPosition[position]];
+                ids[position] = employeeIds.get(row);
+                // from here on the id index points at positions instead of ranks
+                positions.put(ids[position], position);
+                nameIndexesByPosition[position] = nameIndexes.get(row);
+                subordinateOffsets[position + 1] = rankOffsets[rankOfPosition[position] + 1]
+                        - rankOffsets[rankOfPosition[position]];
+            }
+            for (int position = 0; position < size; position++) {
+                subordinateOffsets[position + 1] += subordinateOffsets[position];
+            }
+            checkCancelled(cancelled);
+            // subordinates come after their manager, so walking backwards completes every subtree first
+            int[] subordinates = new int[size - 1];
+            int[] filled = new int[size];
+            for (int position = size - 1; position >= 0; position--) {
+                subtreeSizes[position]++;
+                int parent = parents[position];
+                if (parent != NO_POSITION) {
+                    subtreeSizes[parent] += subtreeSizes[position];
+                    // visited backwards, so fill each subordinate group from its end
+                    int slot = subordinateOffsets[parent + 1] - 1 - filled[parent]++;
+                    subordinates[slot] = position;
+                }
+            }
+
+            return new CompactHierarchy(ids, parents, levels, subtreeSizes, subordinateOffsets, subordinates,
+                    nameIndexesByPosition, names.toArray(new String[names.size()]), positions);
+        }
+
+        /**
+         * Arranges the collected employees in pre-order starting with the CEO, using the threads of the given pool.
+         *  The employees are sorted in parallel, and once the size of every subtree is known, each subtree
+         *  gets its own range of positions, so large subtrees are laid out by separate tasks at the same time.
+         *
+         * @param pool the pool running the tasks, the calling thread waits for the result
+         *
+         * @return the compact hierarchy, throws RuntimeException if some employees are not under the CEO
+         *  and CancellationException if the calling thread is interrupted
+         */
+        public CompactHierarchy build(ForkJoinPool pool) {
+            // the tasks can't see the interrupt of the calling thread, so they check a flag set when it is
+            AtomicBoolean cancelled = new AtomicBoolean(Thread.currentThread().isInterrupted());
+            // parallel sorts and streams run in the pool they are started from
+            ForkJoinTask<CompactHierarchy> task = pool.submit(ForkJoinTask.adapt(() -> buildInParallel(cancelled::get)));
+            try {
+                return task.get();
+            } catch (InterruptedException e) {
+                cancelled.set(true);
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Building the hierarchy was interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                // the pool may rethrow a copy wrapping the exception thrown by one of its threads
+                if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass())
+                    cause = cause.getCause();
+                throw (RuntimeException) cause;
+            }
+        }
+
+        private CompactHierarchy buildInParallel(BooleanSupplier cancelled) {
+            Index index = index(true, cancelled);
+            int size = index.size;
+            int[] rankOffsets = index.rankOffsets;
+            int[] rankSubordinates = index.rankSubordinates;
+            int[] managerRanks = index.managerRanks;
+
+            // Level order from the CEO, every employee can only be reached once as it has a single manager.
+            // Employees in a cycle or under an unknown manager are never reached.
+            int[] order = new int[size];
+            int reached = 0;
+            order[reached++] = index.cEORank;
+            for (int head = 0; head < reached; head++) {
+                int rank = order[head];
+                for (int slot = rankOffsets[rank]; slot < rankOffsets[rank + 1]; slot++) {
+                    order[reached++] = rankSubordinates[slot];
+                }
+            }
+            if (reached != size)
+                throw new RuntimeException("Some Employees are out of the hierarchy");
+            checkCancelled(cancelled);
+
+            // subordinates come after their manager in level order, so walking backwards completes every subtree first
+            int[] rankSubtreeSizes = new int[size];
+            for (int head = size - 1; head >= 0; head--) {
+                int rank = order[head];
+                rankSubtreeSizes[rank]++;
+                if (managerRanks[rank] != NO_POSITION)
+                    rankSubtreeSizes[managerRanks[rank]] += rankSubtreeSizes[rank];
+            }
+            order = null;
+
+            // every subtree starts right after its manager and the subtrees of its smaller Id siblings
+            int[] rankOfPosition = new int[size];
+            int[] levels = new int[size];
+            new LayoutTask(rankOffsets, rankSubordinates, rankSubtreeSizes, rankOfPosition, levels,
+                    index.cEORank, 0, 0).invoke();
+            checkCancelled(cancelled);
+
+            int[] ids = new int[size];
+            int[] nameIndexesByPosition = new int[size];
+            int[] subtreeSizes = new int[size];
+            int[] subordinateOffsets = new int[size + 1];
+            IntStream.range(0, size).parallel().forEach(position -> {
+                int rank = rankOfPosition[position];
+                int row = index.rowOfRank[rank];
+                ids[position] = employeeIds.get(row);
+                nameIndexesByPosition[position] = nameIndexes.get(row);
+                subtreeSizes[position] = rankSubtreeSizes[rank];
+                subordinateOffsets[position + 1] = rankOffsets[rank + 1] - rankOffsets[rank];
+            });
+            Arrays.parallelPrefix(subordinateOffsets, Integer::sum);
+            checkCancelled(cancelled);
+
+            int[] parents = new int[size];
+            int[] subordinates = new int[size - 1];
+            parents[0] = NO_POSITION;
+            IntStream.range(0, size).parallel().forEach(position -> {
+                int subordinate = position + 1;
+                for (int slot = subordinateOffsets[position]; slot < subordinateOffsets[position + 1]; slot++) {
+                    subordinates[slot] = subordinate;
+                    parents[subordinate] = position;
+                    subordinate += subtreeSizes[subordinate];
+                }
+            });
+
+            // from here on the id index points at positions instead of ranks
+            IntIntHashMap positions = index.ranks;
+            for (int position = 0; position < size; position++) {
+                positions.put(ids[position], position);
+            }
+
+            return new CompactHierarchy(ids, parents, levels, subtreeSizes, subordinateOffsets, subordinates,
+                    nameIndexesByPosition, names.toArray(new String[names.size()]), positions);
+        }
+
+        /**
+         * Sorts the employees by Id and indexes the subordinates of every employee
+         *
+         * @param parallel whether to sort using the pool of the calling thread
+         * @param cancelled whether the build was cancelled
+         *
+         * @return the index, throws IllegalStateException if there are no employees or no CEO
+         */
+        private Index index(boolean parallel, BooleanSupplier cancelled) {
+            int size = employeeIds.size();
+            if (size == 0)
+                throw new IllegalStateException("No employees were added");
+
+            // Sort rows by employee Id (id in the high bits, row in the low bits), so every
+            // subordinate group below comes out already sorted
+            long[] sortedRows = new long[size];
+            for (int row = 0; row < size; row++) {
+                sortedRows[row] = ((long) employeeIds.get(row) << 32) | row;
+            }
+            if (parallel)
+                Arrays.parallelSort(sortedRows);
+            else
+                Arrays.sort(sortedRows);
+            checkCancelled(cancelled);
+
+            Index index = new Index(size);
+            // employee id -> rank in the sorted order
+            for (int rank = 0; rank < size; rank++) {
+                index.rowOfRank[rank] = (int) sortedRows[rank];
+                index.ranks.put(employeeIds.get(index.rowOfRank[rank]), rank);
+            }
+            sortedRows = null;
+
+            // manager rank -> subordinate ranks, stored as one array sliced by offsets
+            int[] rankOffsets = index.rankOffsets;
+            for (int rank = 0; rank < size; rank++) {
+                int managerId = managerIds.get(index.rowOfRank[rank]);
+                int managerRank = managerId == NO_MANAGER ? NO_POSITION : index.ranks.get(managerId);
+                index.managerRanks[rank] = managerRank;
+                if (managerId == NO_MANAGER)
+                    index.cEORank = rank;
+                else if (managerRank != NO_POSITION)
+                    rankOffsets[managerRank + 1]++;
+            }
+            if (index.cEORank == NO_POSITION)
+                throw new IllegalStateException("No employee without a manager");
+            checkCancelled(cancelled);
+            for (int rank = 0; rank < size; rank++) {
+                rankOffsets[rank + 1] += rankOffsets[rank];
+            }
+            index.rankSubordinates = new int[rankOffsets[size]];
+            int[] nextSlot = Arrays.copyOf(rankOffsets, size);
+            for (int rank = 0; rank < size; rank++) {
+                if (index.managerRanks[rank] != NO_POSITION)
+                    index.rankSubordinates[nextSlot[index.managerRanks[rank]]++] = rank;
+            }
+            return index;
+        }
+
+        // between the linear passes of a build, so a request past its deadline stops within one pass
+        private static void checkCancelled(BooleanSupplier cancelled) {
+            if (cancelled.getAsBoolean())
+                throw new CancellationException("Building the hierarchy was interrupted");
+        }
+    }
+
+    /**
+     * The employees of a builder sorted by Id, where the rank of an employee is its index in the sorted order
+     */
+    private static class Index {
+
+        private final int size;
+        // employee id -> rank
+        private final IntIntHashMap ranks;
+        private final int[] rowOfRank;
+        // rank of the manager of every rank, NO_POSITION for the CEO and unknown managers
+        private final int[] managerRanks;
+        // subordinates of rank r are rankSubordinates[rankOffsets[r] .. rankOffsets[r + 1])
+        private final int[] rankOffsets;
+        private int[] rankSubordinates;
+        private int cEORank = NO_POSITION;
+
+        private Index(int size) {
+            this.size = size;
+            ranks = new IntIntHashMap(size, NO_POSITION);
+            rowOfRank = new int[size];
+            managerRanks = new int[size];
+            rankOffsets = new int[size + 1];
+        }
+    }
+
+    /**
+     * Lays out a subtree at its range of positions, handing large subtrees of siblings to other tasks
+     */
+    private static class LayoutTask extends RecursiveAction {
+
+        // subtrees of at least this many employees are laid out by their own task
+        private static final int FORK_THRESHOLD = 8192;
+
+        private final int[] rankOffsets;
+        private final int[] rankSubordinates;
+        private final int[] rankSubtreeSizes;
+        private final int[] rankOfPosition;
+        private final int[] levels;
+        private final int rank;
+        private final int position;
+        private final int level;
+
+        private LayoutTask(int[] rankOffsets, int[] rankSubordinates, int[] rankSubtreeSizes,
+                           int[] rankOfPosition, int[] levels, int rank, int position, int level) {
+            this.rankOffsets = rankOffsets;
+            this.rankSubordinates = rankSubordinates;
+            this.rankSubtreeSizes = rankSubtreeSizes;
+            this.rankOfPosition = rankOfPosition;
+            this.levels = levels;
+            this.rank = rank;
+            this.position = position;
+            this.level = level;
+        }
+
+        @Override
+        protected void compute() {
+            List<LayoutTask> forked = new ArrayList<>();
+            // (rank, position, level) of the employees left to lay out by this task
+            IntList pending = new IntList();
+            pending.add(rank);
+            pending.add(position);
+            pending.add(level);
+            while (!pending.isEmpty()) {
+                int currentLevel = pending.removeLast();
+                int currentPosition = pending.removeLast();
+                int currentRank = pending.removeLast();
+                rankOfPosition[currentPosition] = currentRank;
+                levels[currentPosition] = currentLevel;
+
+                int end = currentPosition + rankSubtreeSizes[currentRank];
+                int subordinatePosition = currentPosition + 1;
+                for (int slot = rankOffsets[currentRank]; slot < rankOffsets[currentRank + 1]; slot++) {
+                    int subordinate = rankSubordinates[slot];
+                    int subtreeSize = rankSubtreeSizes[subordinate];
+                    // the last subordinate always stays with this task, so a long chain never forks
+                    if (subtreeSize >= FORK_THRESHOLD && subordinatePosition + subtreeSize < end) {
+                        LayoutTask task = new LayoutTask(rankOffsets, rankSubordinates, rankSubtreeSizes,
+                                rankOfPosition, levels, subordinate, subordinatePosition, currentLevel + 1);
+                        task.fork();
+                        forked.add(task);
+                    } else {
+                        pending.add(subordinate);
+                        pending.add(subordinatePosition);
+                        pending.add(currentLevel + 1);
+                    }
+                    subordinatePosition += subtreeSize;
+                }
+            }
+            for (LayoutTask task : forked) {
+                task.join();
+            }
+        }
+    }
+
+}
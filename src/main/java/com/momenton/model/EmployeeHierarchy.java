@@ -1,5 +1,8 @@
 package com.momenton.model;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Objects;
 
@@ -31,22 +34,30 @@ public class EmployeeHierarchy {
     }
 
     /**
-     * recursive method to get the depth of a given employee list
+     * Get the depth of a given employee list by walking it with an explicit stack of sibling iterators,
+     *  so the thread stack does not grow with the depth of the hierarchy
      *
      * @param employees list of employees to get depth for
-     * @param depth current list's depth
+     * @param depth depth of the manager of the given list
      *
-     * @return the maximum depth of the provided list
+     * @return the maximum depth of the provided list across all siblings
      */
     private int getDepth(List<Employee> employees, int depth) {
-        depth++;
         int maxDepth = depth;
-        for (Employee employee: employees) {
+        Deque<Iterator<Employee>> pendingLists = new ArrayDeque<>();
+        pendingLists.push(employees.iterator());
+        while (!pendingLists.isEmpty()) {
+            Iterator<Employee> siblings = pendingLists.peek();
+            if (!siblings.hasNext()) {
+                pendingLists.pop();
+                continue;
+            }
+            Employee employee = siblings.next();
+            // each list on the stack is one layer below the given depth
+            maxDepth = Math.max(maxDepth, depth + pendingLists.size());
             if (employee.getClass().equals(Manager.class)) {
                 Manager manager = (Manager) employee;
-                maxDepth = getDepth(manager.getSubordinates(), depth);
-                if (depth > maxDepth)
-                    maxDepth = depth;
+                pendingLists.push(manager.getSubordinates().iterator());
             }
         }
         return maxDepth;
@@ -0,0 +1,155 @@
+package com.momenton.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * The changes turning one hierarchy of an organization into another: the employees who joined, left,
+ *  were renamed or moved to another manager.
+ *
+ * An employee moving to another manager takes their whole subtree with them, so only the employee
+ *  at the top of the subtree is listed as moved; the employees under them keep their manager.
+ */
+public class HierarchyDiff {
+
+    private final List<Employee> joined;
+    private final List<Employee> left;
+    private final List<Rename> renamed;
+    private final List<Move> moved;
+
+    /**
+     * @param joined employees only in the new hierarchy, with their manager in it
+     * @param left employees only in the old hierarchy, with their manager in it
+     * @param renamed employees whose name changed
+     * @param moved employees whose manager changed
+     */
+    public HierarchyDiff(List<Employee> joined, List<Employee> left, List<Rename> renamed, List<Move> moved) {
+        this.joined = joined;
+        this.left = left;
+        this.renamed = renamed;
+        this.moved = moved;
+    }
+
+    public List<Employee> getJoined() {
+        return joined;
+    }
+
+    public List<Employee> getLeft() {
+        return left;
+    }
+
+    public List<Rename> getRenamed() {
+        return renamed;
+    }
+
+    public List<Move> getMoved() {
+        return moved;
+    }
+
+    /**
+     * @return total number of changes
+     */
+    public int getChangeCount() {
+        return joined.size() + left.size() + renamed.size() + moved.size();
+    }
+
+    @Override
+    public String toString() {
+        return "HierarchyDiff{" +
+                "joined=" + joined +
+                ", left=" + left +
+                ", renamed=" + renamed +
+                ", moved=" + moved +
+                '}';
+    }
+
+    /**
+     * An employee whose name changed
+     */
+    public static class Rename {
+
+        private final int employeeId;
+        private final String previousName;
+        private final String name;
+
+        public Rename(int employeeId, String previousName, String name) {
+            this.employeeId = employeeId;
+            this.previousName = previousName;
+            this.name = name;
+        }
+
+        public int getEmployeeId() {
+            return employeeId;
+        }
+
+        public String getPreviousName() {
+            return previousName;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return "Rename{" +
+                    "employeeId=" + employeeId +
+                    ", previousName='" + previousName + '\'' +
+                    ", name='" + name + '\'' +
+                    '}';
+        }
+    }
+
+    /**
+     * An employee who moved to another manager along with everyone under them
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Move {
+
+        private final int employeeId;
+        private final Integer previousManagerId;
+        private final Integer managerId;
+        private final int subtreeSize;
+
+        /**
+         * @param employeeId id of the employee at the top of the moved subtree
+         * @param previousManagerId manager before the move, null if the employee was the CEO
+         * @param managerId manager after the move, null if the employee became the CEO
+         * @param subtreeSize number of employees in the subtree after the move, including the employee itself
+         */
+        public Move(int employeeId, Integer previousManagerId, Integer managerId, int subtreeSize) {
+            this.employeeId = employeeId;
+            this.previousManagerId = previousManagerId;
+            this.managerId = managerId;
+            this.subtreeSize = subtreeSize;
+        }
+
+        public int getEmployeeId() {
+            return employeeId;
+        }
+
+        public Integer getPreviousManagerId() {
+            return previousManagerId;
+        }
+
+        public Integer getManagerId() {
+            return managerId;
+        }
+
+        public int getSubtreeSize() {
+            return subtreeSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Move{" +
+                    "employeeId=" + employeeId +
+                    ", previousManagerId=" + previousManagerId +
+                    ", managerId=" + managerId +
+                    ", subtreeSize=" + subtreeSize +
+                    '}';
+        }
+    }
+
+}
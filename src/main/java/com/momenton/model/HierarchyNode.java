@@ -0,0 +1,92 @@
+package com.momenton.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * One employee of a partially expanded hierarchy.
+ *
+ * The subordinates are only listed up to the requested depth and page size. An employee whose
+ *  subordinates are not all listed carries a cursor, which fetches the subordinates after the listed ones.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HierarchyNode {
+
+    private final String name;
+    private final int employeeId;
+    private final int level;
+    private final int subordinateCount;
+    private final int headcount;
+    private List<HierarchyNode> subordinates;
+    private String cursor;
+
+    public HierarchyNode(String name, int employeeId, int level, int subordinateCount, int headcount) {
+        this.name = name;
+        this.employeeId = employeeId;
+        this.level = level;
+        this.subordinateCount = subordinateCount;
+        this.headcount = headcount;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getEmployeeId() {
+        return employeeId;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * @return number of direct subordinates, listed or not
+     */
+    public int getSubordinateCount() {
+        return subordinateCount;
+    }
+
+    /**
+     * @return number of employees under this one, directly or indirectly
+     */
+    public int getHeadcount() {
+        return headcount;
+    }
+
+    /**
+     * @return the listed subordinates, null if none are listed
+     */
+    public List<HierarchyNode> getSubordinates() {
+        return subordinates;
+    }
+
+    public void setSubordinates(List<HierarchyNode> subordinates) {
+        this.subordinates = subordinates;
+    }
+
+    /**
+     * @return cursor fetching the subordinates that are not listed, null if all of them are
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    @Override
+    public String toString() {
+        return "HierarchyNode{" +
+                "name='" + name + '\'' +
+                ", employeeId=" + employeeId +
+                ", level=" + level +
+                ", subordinateCount=" + subordinateCount +
+                ", headcount=" + headcount +
+                ", subordinates=" + subordinates +
+                ", cursor='" + cursor + '\'' +
+                '}';
+    }
+}
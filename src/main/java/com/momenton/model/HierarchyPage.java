@@ -0,0 +1,39 @@
+package com.momenton.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * A page of the direct subordinates of one manager, fetched with a cursor
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class HierarchyPage {
+
+    private final List<HierarchyNode> subordinates;
+    private final String cursor;
+
+    public HierarchyPage(List<HierarchyNode> subordinates, String cursor) {
+        this.subordinates = subordinates;
+        this.cursor = cursor;
+    }
+
+    public List<HierarchyNode> getSubordinates() {
+        return subordinates;
+    }
+
+    /**
+     * @return cursor fetching the next page of the same manager's subordinates, null on the last page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    @Override
+    public String toString() {
+        return "HierarchyPage{" +
+                "subordinates=" + subordinates +
+                ", cursor='" + cursor + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,220 @@
+package com.momenton.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Saves a CompactHierarchy to a file and loads it back, without going through Employee/Manager objects.
+ *
+ * The file holds the int columns of the hierarchy as they are in memory (little endian), followed by
+ *  the name table as one length per name (-1 for null) and the UTF-8 bytes of all the names.
+ *  A 32 byte header holds a magic number, the format version, the sizes of the columns and
+ *  a CRC32 checksum of everything after the header.
+ *
+ * Loading maps the file and copies the columns out of the mapped region with bulk int reads,
+ *  so the cost is about a memory copy plus rebuilding the id index.
+ */
+public class HierarchySnapshot {
+
+    private static final int MAGIC = 0x48534e50; // "HSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int CHECKSUM_OFFSET = 24;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // columns, in the order of CompactHierarchy.getColumns()
+    private static final int COLUMN_COUNT = 7;
+    private static final int SUBORDINATE_OFFSETS_COLUMN = 4;
+    private static final int SUBORDINATES_COLUMN = 5;
+
+    // To Prevent Creating instances as utility classes should only be called in a static manner
+    private HierarchySnapshot() {
+    }
+
+    /**
+     * Writes the hierarchy to the given file. The file is written under a temporary name and then renamed,
+     *  so a crash while writing leaves the previous snapshot in place.
+     *
+     * @param hierarchy the hierarchy to save
+     * @param file where the snapshot is written to, replaced if it exists
+     * @throws IOException if the file can't be written
+     */
+    public static void write(CompactHierarchy hierarchy, Path file) throws IOException {
+        int[][] columns = hierarchy.getColumns();
+        String[] names = hierarchy.getNames();
+        byte[][] encodedNames = new byte[names.length][];
+        int[] nameLengths = new int[names.length];
+        long nameBytes = 0;
+        for (int nameIndex = 0; nameIndex < names.length; nameIndex++) {
+            if (names[nameIndex] == null) {
+                nameLengths[nameIndex] = -1;
+                continue;
+            }
+            encodedNames[nameIndex] = names[nameIndex].getBytes(StandardCharsets.UTF_8);
+            nameLengths[nameIndex] = encodedNames[nameIndex].length;
+            nameBytes += nameLengths[nameIndex];
+        }
+        if (nameBytes > Integer.MAX_VALUE)
+            throw new IOException("Name table too large for a snapshot: " + nameBytes + " bytes");
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            Output output = new Output(channel);
+            channel.position(HEADER_BYTES);
+            for (int[] column : columns) {
+                output.writeInts(column);
+            }
+            output.writeInts(nameLengths);
+            for (byte[] name : encodedNames) {
+                if (name != null)
+                    output.writeBytes(name);
+            }
+            output.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(hierarchy.getSize())
+                    .putInt(columns[SUBORDINATES_COLUMN].length)
+                    .putInt(names.length)
+                    .putInt((int) nameBytes)
+                    .putLong(output.checksum.getValue());
+            header.flip();
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a hierarchy saved by write(...)
+     *
+     * @param file the snapshot file
+     *
+     * @return the saved hierarchy
+     * @throws IOException if the file can't be read, or isn't a complete snapshot of a supported version
+     */
+    public static CompactHierarchy read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_BYTES || fileSize > Integer.MAX_VALUE)
+                throw corrupt(file, "unexpected size " + fileSize);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (mapped.getInt(0) != MAGIC)
+                throw corrupt(file, "not a snapshot");
+            if (mapped.getInt(4) != VERSION)
+                throw corrupt(file, "unsupported version " + mapped.getInt(4));
+            int size = mapped.getInt(8);
+            int subordinateCount = mapped.getInt(12);
+            int nameCount = mapped.getInt(16);
+            int nameBytes = mapped.getInt(20);
+            // every column holds size ints, except the subordinate offsets (size + 1) and the subordinates
+            long intCount = (COLUMN_COUNT - 2L) * size + (size + 1L) + subordinateCount + nameCount;
+            if (size < 0 || subordinateCount < 0 || nameCount < 0 || nameBytes < 0
+                    || HEADER_BYTES + intCount * Integer.BYTES + nameBytes != fileSize)
+                throw corrupt(file, "sizes don't match the file size");
+
+            CRC32 checksum = new CRC32();
+            ByteBuffer body = mapped.duplicate();
+            body.position(HEADER_BYTES);
+            checksum.update(body);
+            if (checksum.getValue() != mapped.getLong(CHECKSUM_OFFSET))
+                throw corrupt(file, "checksum mismatch");
+
+            ByteBuffer content = mapped.duplicate();
+            content.position(HEADER_BYTES);
+            IntBuffer ints = content.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            int[][] columns = new int[COLUMN_COUNT][];
+            for (int column = 0; column < COLUMN_COUNT; column++) {
+                int length = column == SUBORDINATE_OFFSETS_COLUMN ? size + 1
+                        : column == SUBORDINATES_COLUMN ? subordinateCount : size;
+                columns[column] = new int[length];
+                ints.get(columns[column]);
+            }
+            int[] nameLengths = new int[nameCount];
+            ints.get(nameLengths);
+
+            content.position(HEADER_BYTES + ints.position() * Integer.BYTES);
+            String[] names = new String[nameCount];
+            byte[] bytes = new byte[64];
+            for (int nameIndex = 0; nameIndex < nameCount; nameIndex++) {
+                int length = nameLengths[nameIndex];
+                if (length < 0)
+                    continue;
+                if (length > content.remaining())
+                    throw corrupt(file, "name table doesn't match its lengths");
+                if (length > bytes.length)
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                content.get(bytes, 0, length);
+                names[nameIndex] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+            return CompactHierarchy.fromColumns(columns, names);
+        }
+    }
+
+    private static IOException corrupt(Path file, String reason) {
+        return new IOException("Invalid hierarchy snapshot " + file + ": " + reason);
+    }
+
+    /**
+     * Collects the written values in a direct buffer and writes it to the channel whenever it fills up,
+     *  updating the checksum with every chunk
+     */
+    private static class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32 checksum = new CRC32();
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void writeInts(int[] values) throws IOException {
+            for (int offset = 0; offset < values.length; ) {
+                if (buffer.remaining() < Integer.BYTES)
+                    flush();
+                int count = Math.min(buffer.remaining() / Integer.BYTES, values.length - offset);
+                buffer.asIntBuffer().put(values, offset, count);
+                buffer.position(buffer.position() + count * Integer.BYTES);
+                offset += count;
+            }
+        }
+
+        private void writeBytes(byte[] values) throws IOException {
+            for (int offset = 0; offset < values.length; ) {
+                if (!buffer.hasRemaining())
+                    flush();
+                int count = Math.min(buffer.remaining(), values.length - offset);
+                buffer.put(values, offset, count);
+                offset += count;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            checksum.update(buffer);
+            buffer.rewind();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+package com.momenton.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The result of validating an employee list. Lists every broken rule along with the offending
+ *  employee ids and their positions in the submitted list, so all bad rows are reported at once.
+ */
+public class ValidationReport {
+
+    private final List<Violation> violations;
+
+    public ValidationReport(List<Violation> violations) {
+        Objects.requireNonNull(violations);
+        this.violations = Collections.unmodifiableList(violations);
+    }
+
+    public boolean isValid() {
+        return violations.isEmpty();
+    }
+
+    public List<Violation> getViolations() {
+        return violations;
+    }
+
+    /**
+     * @param type the rule to look for
+     *
+     * @return the violation of the given rule if the rule was broken, null otherwise
+     */
+    public Violation getViolation(ViolationType type) {
+        for (Violation violation : violations) {
+            if (violation.getType() == type)
+                return violation;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidationReport{" +
+                "violations=" + violations +
+                '}';
+    }
+
+    /**
+     * One broken rule and every employee that breaks it. Reporting cycles and orphaned employees
+     *  get a violation per cycle and per group, so the employees that belong together are listed together.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Violation {
+
+        private final ViolationType type;
+        private final int[] employeeIds;
+        private final int[] rows;
+        private final String detail;
+
+        /**
+         * @param type the broken rule
+         * @param employeeIds ids of the offending employees
+         * @param rows zero based positions of the offending employees in the submitted list
+         */
+        public Violation(ViolationType type, int[] employeeIds, int[] rows) {
+            this(type, employeeIds, rows, null);
+        }
+
+        /**
+         * @param type the broken rule
+         * @param employeeIds ids of the offending employees
+         * @param rows zero based positions of the offending employees in the submitted list
+         * @param detail what the offending employees have in common, null if it's only the broken rule
+         */
+        public Violation(ViolationType type, int[] employeeIds, int[] rows, String detail) {
+            Objects.requireNonNull(type);
+            Objects.requireNonNull(employeeIds);
+            Objects.requireNonNull(rows);
+            this.type = type;
+            this.employeeIds = employeeIds;
+            this.rows = rows;
+            this.detail = detail;
+        }
+
+        public ViolationType getType() {
+            return type;
+        }
+
+        public String getDescription() {
+            return type.getDescription();
+        }
+
+        public int[] getEmployeeIds() {
+            return employeeIds;
+        }
+
+        public int[] getRows() {
+            return rows;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        @Override
+        public String toString() {
+            return "Violation{" +
+                    "type=" + type +
+                    ", employeeIds=" + Arrays.toString(employeeIds) +
+                    ", rows=" + Arrays.toString(rows) +
+                    (detail == null ? "" : ", detail='" + detail + '\'') +
+                    '}';
+        }
+    }
+
+    /**
+     * The rules an employee list must follow to be turned into a hierarchy,
+     *  and a change to a stored hierarchy must follow to keep it one
+     */
+    public enum ViolationType {
+        INVALID_EMPLOYEE_NAME("Employee Name is null or an empty string"),
+        INVALID_EMPLOYEE_ID("Employee Id is null, 0, or a negative number"),
+        DUPLICATE_EMPLOYEE_ID("Employee Id is not unique across the list"),
+        EMPLOYEE_IS_OWN_MANAGER("Manager Id is the same as the Employee Id"),
+        UNKNOWN_MANAGER_ID("Manager Id is not included in the given Employee Ids"),
+        MORE_THAN_ONE_CEO("More than one employee with no Manager Id"),
+        NO_CEO("No employee without a Manager Id"),
+        UNKNOWN_EMPLOYEE_ID("Employee Id is not included in the hierarchy"),
+        REPORTING_CYCLE("Manager Id is the employee's own subordinate, directly or indirectly"),
+        ORPHANED_EMPLOYEE("Employee is not under the CEO, their chain of managers never reaches an employee "
+                + "without a Manager Id");
+
+        private final String description;
+
+        ViolationType(String description) {
+            this.description = description;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+}
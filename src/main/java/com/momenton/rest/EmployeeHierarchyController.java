@@ -1,59 +1,765 @@
 package com.momenton.rest;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.momenton.model.CompactHierarchy;
 import com.momenton.model.Employee;
 import com.momenton.model.EmployeeHierarchy;
+import com.momenton.model.HierarchyDiff;
+import com.momenton.model.HierarchyNode;
+import com.momenton.model.HierarchyPage;
+import com.momenton.model.ValidationReport;
 import com.momenton.service.EmployeeHierarchyService;
+import com.momenton.service.HierarchyBatchService;
+import com.momenton.service.HierarchyCache;
+import com.momenton.service.HierarchyDiffService;
+import com.momenton.service.HierarchyMetrics;
+import com.momenton.service.HierarchyMetrics.Phase;
+import com.momenton.service.HierarchyPager;
+import com.momenton.service.HierarchyRequestExecutor;
+import com.momenton.service.HierarchyRequestLog;
+import com.momenton.service.HierarchyStore;
+import com.momenton.service.HierarchyStorePersistence;
+import com.momenton.service.InvalidEmployeeListException;
+import com.momenton.service.InvalidPageRequestException;
+import com.momenton.service.RequestRejectedException;
+import com.momenton.service.RequestTimeoutException;
+import com.momenton.service.UnknownCursorException;
+import com.momenton.service.UncachedHierarchyException;
+import com.momenton.util.BinaryFormatException;
+import com.momenton.util.CountingOutputStream;
+import com.momenton.util.EmployeeBinaryFormat;
 import com.momenton.util.EmployeeHierarchyFormatter;
+import com.momenton.util.EmployeeHierarchyFormatter.DisplayType;
+import com.momenton.util.FlatHierarchyJson;
+import com.momenton.util.InterruptibleInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.springframework.web.bind.annotation.RequestMethod.*;
 
 @RestController
 public class EmployeeHierarchyController {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(EmployeeHierarchyController.class);
+
+    private static final MediaType HTML_UTF8 = new MediaType("text", "html", StandardCharsets.UTF_8);
+    private static final MediaType BINARY = MediaType.parseMediaType(EmployeeBinaryFormat.MEDIA_TYPE);
+    private static final MediaType FLAT_JSON = MediaType.parseMediaType(FlatHierarchyJson.MEDIA_TYPE);
+    // rows are handed to the servlet response in chunks of this size
+    private static final int RESPONSE_BUFFER_SIZE = 8192;
+    // subordinates returned per manager when only part of a hierarchy is requested
+    private static final String DEFAULT_PAGE_SIZE = "100";
+    // suggested to clients whose request was not admitted
+    private static final int RETRY_AFTER_SECONDS = 1;
+
     @Autowired
     private EmployeeHierarchyService employeeHierarchyService;
 
+    @Autowired
+    private HierarchyCache hierarchyCache;
+
+    @Autowired
+    private HierarchyBatchService hierarchyBatchService;
+
+    @Autowired
+    private HierarchyRequestExecutor hierarchyRequestExecutor;
+
+    @Autowired
+    private HierarchyDiffService hierarchyDiffService;
+
+    @Autowired
+    private HierarchyPager hierarchyPager;
+
+    @Autowired
+    private HierarchyStore hierarchyStore;
+
+    @Autowired
+    private HierarchyStorePersistence hierarchyStorePersistence;
+
+    @Autowired
+    private HierarchyMetrics hierarchyMetrics;
+
+    @Autowired
+    private HierarchyRequestLog hierarchyRequestLog;
+
+    private ObjectWriter jsonWriter;
+
+    /**
+     * @param objectMapper the mapper Spring MVC uses for JSON responses
+     */
+    @Autowired
+    public void setObjectMapper(ObjectMapper objectMapper) {
+        // the servlet closes the response stream itself
+        this.jsonWriter = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
     /**
      * REST web service
      *
      * Accepts a list of all employees in a specific organization and returns a hierarchical object
-     *  representation of the organization starting with the CEO
+     *  representation of the organization starting with the CEO.
+     *  The list is read in the binary employee format when the Content-Type is application/vnd.momenton.hierarchy,
+     *  and the hierarchy is written in the binary format, in pre-order with the level of every employee,
+     *  when that type is accepted. When application/vnd.momenton.hierarchy.flat+json is accepted, the hierarchy
+     *  is written as a flat JSON array of rows in pre-order, which doesn't nest deeper for deeper organizations.
+     *  Nested JSON objects are used otherwise.
+     *  When levels is given, only the top levels of the hierarchy are returned as JSON: every employee with
+     *  their headcount, at most pageSize subordinates per manager, and a cursor for the subordinates left out
+     *  (see /getEmployeeHierarchyPage).
      *
-     * @param allEmployees list of all employees
+     * @param allEmployees array of all employees, read as a stream without binding it to Employee objects
+     * @param contentType format of the employee list
+     * @param accept formats accepted for the hierarchy
+     * @param contentLength size of the employee list, picks the pool of workers that builds the hierarchy
+     * @param levels number of levels to return, starting with the CEO, null for the whole hierarchy
+     * @param pageSize largest number of subordinates returned per manager when levels is given
      *
-     * @return EmployeeHierarchy that represents the passed employees
+     * @return EmployeeHierarchy that represents the passed employees, or a HierarchyNode of the CEO
      */
     @RequestMapping(value = "/getEmployeeHierarchy", method = POST)
-    public @ResponseBody
-    EmployeeHierarchy getHierarchyAsObject(@RequestBody List<Employee> allEmployees) {
-        System.out.println("Web Service \"/getEmployeeHierarchy\" called.");
-        EmployeeHierarchy hierarchy = employeeHierarchyService.getEmployeeHierarchy(allEmployees);
-        //log to console
-        System.out.println(EmployeeHierarchyFormatter.getTextRepresentation(hierarchy));
-        return hierarchy;
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getHierarchyAsObject(
+            InputStream allEmployees,
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+            @RequestParam(value = "levels", required = false) Integer levels,
+            @RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize) {
+        LOGGER.debug("Web Service \"/getEmployeeHierarchy\" called.");
+        long requestStart = System.nanoTime();
+        return hierarchyRequestExecutor.submit(contentLength,
+                () -> hierarchyResponse(allEmployees, contentType, accept, levels, pageSize, requestStart));
     }
 
     /**
      * REST web service
      *
      * Accepts a list of all employees in a specific organization and returns HTML table that represents
-     *  the hierarchy of the organization starting with the CEO
+     *  the hierarchy of the organization starting with the CEO.
+     *  The table is written to the response row by row while it is produced (chunked transfer),
+     *  so it is never held in memory as a whole. Tables of recently submitted lists that are small enough
+     *  are kept rendered in the cache and written as they are.
      *
-     * @param allEmployees list of all employees
+     * @param allEmployees array of all employees, read as a stream without binding it to Employee objects
+     * @param contentType format of the employee list, JSON or the binary employee format
+     * @param contentLength size of the employee list, picks the pool of workers that builds the hierarchy
      *
      * @return html snippet of a table that represents the employees organizational hierarchy
      */
     @RequestMapping(value = "/getEmployeeHierarchyAsHTML", method = POST)
-    public String getHierarchyAsHTML(@RequestBody List<Employee> allEmployees) {
-        System.out.println("Web Service \"/getEmployeeHierarchyAsHTML\" called.");
-        EmployeeHierarchy hierarchy = employeeHierarchyService.getEmployeeHierarchy(allEmployees);
-        //log to console
-        System.out.println(EmployeeHierarchyFormatter.getTextRepresentation(hierarchy));
-        return EmployeeHierarchyFormatter.getHTMLRepresentation(hierarchy);
+    public DeferredResult<ResponseEntity<StreamingResponseBody>> getHierarchyAsHTML(
+            InputStream allEmployees,
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength) {
+        LOGGER.debug("Web Service \"/getEmployeeHierarchyAsHTML\" called.");
+        long start = System.nanoTime();
+        return hierarchyRequestExecutor.submit(contentLength, () -> {
+            // the table is rendered straight from the compact hierarchy, no Employee/Manager objects are needed
+            // build and validate before answering, so an invalid list still gets a Bad Request status
+            CompactHierarchy hierarchy = readHierarchy(allEmployees, contentType);
+            hierarchyMetrics.recordHierarchy(hierarchy);
+            String rendering = hierarchyCache.getRendering(hierarchy, DisplayType.HTML);
+            return htmlResponse("/getEmployeeHierarchyAsHTML", start, hierarchy, rendering);
+        });
+    }
+
+    /**
+     * Builds the hierarchy of /getEmployeeHierarchy, on a worker of the request executor
+     *
+     * @param allEmployees array of all employees
+     * @param contentType format of the employee list
+     * @param accept formats accepted for the hierarchy
+     * @param levels number of levels to return, null for the whole hierarchy
+     * @param pageSize largest number of subordinates returned per manager when levels is given
+     * @param requestStart System.nanoTime() at the start of the request
+     *
+     * @return response streaming the hierarchy in the accepted format
+     * @throws IOException if the employee list can't be read
+     */
+    private ResponseEntity<StreamingResponseBody> hierarchyResponse(InputStream allEmployees, String contentType,
+                                                                    String accept, Integer levels, int pageSize,
+                                                                    long requestStart)
+            throws IOException {
+        CompactHierarchy compactHierarchy = readHierarchy(allEmployees, contentType);
+        hierarchyMetrics.recordHierarchy(compactHierarchy);
+        if (levels != null) {
+            // only the top of the hierarchy, read straight from the compact hierarchy
+            HierarchyNode topLevels = hierarchyPager.getTopLevels(compactHierarchy, levels, pageSize);
+            return serializedResponse(MediaType.APPLICATION_JSON_UTF8, compactHierarchy, requestStart,
+                    output -> jsonWriter.writeValue(output, topLevels));
+        }
+        MediaType preferredType = getPreferredType(accept, FLAT_JSON, BINARY, MediaType.APPLICATION_JSON);
+        if (preferredType == FLAT_JSON) {
+            // written row by row straight from the compact hierarchy, with constant stack use at any depth
+            return serializedResponse(FLAT_JSON, compactHierarchy, requestStart,
+                    output -> FlatHierarchyJson.write(compactHierarchy, output));
+        }
+        if (preferredType == BINARY) {
+            // written straight from the compact hierarchy, no Employee/Manager objects are needed
+            return serializedResponse(BINARY, compactHierarchy, requestStart,
+                    output -> EmployeeBinaryFormat.writeHierarchy(compactHierarchy, output));
+        }
+        long start = System.nanoTime();
+        EmployeeHierarchy employeeHierarchy = compactHierarchy.toEmployeeHierarchy();
+        hierarchyMetrics.record(Phase.OBJECTS, start);
+        // written here rather than by the message converter, so the serialization can be timed and measured
+        return serializedResponse(MediaType.APPLICATION_JSON_UTF8, compactHierarchy, requestStart,
+                output -> jsonWriter.writeValue(output, employeeHierarchy));
+    }
+
+    /**
+     * Writes a serialized form of the hierarchy to the response, and logs the summary of
+     *  the /getEmployeeHierarchy request once it's written
+     *
+     * @param mediaType type of the serialized form
+     * @param hierarchy the hierarchy of the request
+     * @param requestStart System.nanoTime() at the start of the request
+     * @param serializer writes the serialized form to the stream it is given
+     *
+     * @return response streaming the serialized form
+     */
+    private ResponseEntity<StreamingResponseBody> serializedResponse(MediaType mediaType, CompactHierarchy hierarchy,
+                                                                     long requestStart,
+                                                                     StreamingResponseBody serializer) {
+        long buildNanos = System.nanoTime() - requestStart;
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .body(response -> {
+                    long serializationStart = System.nanoTime();
+                    CountingOutputStream output = new CountingOutputStream(response);
+                    serializer.writeTo(output);
+                    output.flush();
+                    hierarchyMetrics.record(Phase.SERIALIZE, serializationStart);
+                    hierarchyMetrics.recordOutputBytes(output.getCount());
+                    hierarchyRequestLog.log("/getEmployeeHierarchy", hierarchy, buildNanos,
+                            System.nanoTime() - serializationStart, output.getCount());
+                });
+    }
+
+    /**
+     * REST web service
+     *
+     * Accepts the employee lists of many organizations at once, as a JSON object of employee arrays
+     *  by organization name, and returns the hierarchy of each organization. The organizations are
+     *  validated and built in parallel, an invalid list only fails its own organization.
+     *
+     * @param organizations object of employee arrays by organization name
+     * @param contentLength size of the request, picks the pool of workers that reads it
+     *
+     * @return by organization name: the hierarchy, or the validation report or the reason the list couldn't be read
+     */
+    @RequestMapping(value = "/getEmployeeHierarchies", method = POST)
+    public @ResponseBody
+    DeferredResult<Map<String, HierarchyBatchService.Result>> getHierarchies(
+            InputStream organizations,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength) {
+        LOGGER.debug("Web Service \"/getEmployeeHierarchies\" called.");
+        return hierarchyRequestExecutor.submit(contentLength,
+                () -> hierarchyBatchService.getHierarchies(new InterruptibleInputStream(organizations)));
+    }
+
+    /**
+     * REST web service
+     *
+     * Accepts two employee lists of the same organization, e.g. the previous and the current upload of
+     *  an HR system, and returns the changes between their hierarchies: the employees who joined, left,
+     *  were renamed or moved to another manager. A subtree moved as a unit is listed as a single move.
+     *
+     * @param hierarchies JSON object holding both employee arrays, e.g. {"before": [...], "after": [...]}
+     * @param contentLength size of the request, picks the pool of workers that reads it
+     *
+     * @return changes turning the "before" hierarchy into the "after" hierarchy
+     */
+    @RequestMapping(value = "/getEmployeeHierarchyDiff", method = POST)
+    public @ResponseBody
+    DeferredResult<HierarchyDiff> getHierarchyDiff(
+            InputStream hierarchies,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength) {
+        LOGGER.debug("Web Service \"/getEmployeeHierarchyDiff\" called.");
+        return hierarchyRequestExecutor.submit(contentLength,
+                () -> hierarchyDiffService.getDiff(new InterruptibleInputStream(hierarchies)));
+    }
+
+    /**
+     * REST web service
+     *
+     * Returns the next subordinates of a manager, using the cursor of the manager from an earlier response
+     *  of /getEmployeeHierarchy or of this web service. The hierarchy is read from the cache,
+     *  the employee list doesn't have to be sent again.
+     *
+     * @param cursor cursor of the manager
+     * @param levels number of levels to return, 1 for the subordinates only
+     * @param pageSize largest number of subordinates returned per manager
+     *
+     * @return the page of subordinates, with a cursor for the next page if there is one
+     */
+    @RequestMapping(value = "/getEmployeeHierarchyPage", method = GET)
+    public @ResponseBody
+    HierarchyPage getHierarchyPage(@RequestParam("cursor") String cursor,
+                                   @RequestParam(value = "levels", defaultValue = "1") int levels,
+                                   @RequestParam(value = "pageSize", defaultValue = DEFAULT_PAGE_SIZE) int pageSize) {
+        LOGGER.debug("Web Service \"/getEmployeeHierarchyPage\" called.");
+        return hierarchyPager.getPage(cursor, levels, pageSize);
+    }
+
+    /**
+     * REST web service
+     *
+     * Returns the counters of the hierarchy cache, to check how often submitted lists are reused
+     *
+     * @return hits, misses, evictions, number of entries and estimated size of the cache
+     */
+    @RequestMapping(value = "/getEmployeeHierarchyCacheStatistics", method = GET)
+    public @ResponseBody
+    HierarchyCache.Statistics getCacheStatistics() {
+        return hierarchyCache.getStatistics();
+    }
+
+    /**
+     * REST web service
+     *
+     * Accepts a list of all employees in a specific organization and keeps its hierarchy on the server,
+     *  replacing the stored one, so it can be changed one employee at a time afterwards.
+     *  The hierarchy is also saved to a snapshot file when hierarchy.store.directory is set,
+     *  and loaded from it again on startup
+     *
+     * @param allEmployees array of all employees, read as a stream without binding it to Employee objects
+     * @param contentType format of the employee list, JSON or the binary employee format
+     * @param contentLength size of the employee list, picks the pool of workers that builds the hierarchy
+     *
+     * @return number of employees in the stored hierarchy
+     */
+    @RequestMapping(value = "/storeEmployeeHierarchy", method = POST)
+    public @ResponseBody
+    DeferredResult<Integer> storeHierarchy(
+            InputStream allEmployees,
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength) {
+        LOGGER.debug("Web Service \"/storeEmployeeHierarchy\" called.");
+        // only reading and building is stopped at the deadline, never writing the snapshot and the journal
+        return hierarchyRequestExecutor.submit(contentLength, () -> readHierarchy(allEmployees, contentType),
+                hierarchy -> {
+                    hierarchyStorePersistence.store(hierarchy);
+                    return hierarchyStore.getSize();
+                });
+    }
+
+    /**
+     * REST web service
+     *
+     * Accepts a list of all employees in a specific organization and returns the changes from the stored
+     *  hierarchy to the hierarchy of the list, without storing it
+     *
+     * @param allEmployees array of all employees, read as a stream without binding it to Employee objects
+     * @param contentType format of the employee list, JSON or the binary employee format
+     * @param contentLength size of the employee list, picks the pool of workers that builds the hierarchy
+     *
+     * @return changes turning the stored hierarchy into the hierarchy of the list,
+     *  every employee has joined when no hierarchy is stored
+     */
+    @RequestMapping(value = "/getStoredHierarchyDiff", method = POST)
+    public @ResponseBody
+    DeferredResult<HierarchyDiff> getStoredHierarchyDiff(
+            InputStream allEmployees,
+            @RequestHeader(value = HttpHeaders.CONTENT_TYPE, required = false) String contentType,
+            @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength) {
+        LOGGER.debug("Web Service \"/getStoredHierarchyDiff\" called.");
+        return hierarchyRequestExecutor.submit(contentLength, () -> {
+            CompactHierarchy hierarchy = readHierarchy(allEmployees, contentType);
+            CompactHierarchy stored = hierarchyStore.getSize() == 0 ? null : hierarchyStore.getCompactHierarchy();
+            return hierarchyDiffService.getDiff(stored, hierarchy);
+        });
+    }
+
+    /**
+     * REST web service
+     *
+     * Adds one employee to the stored hierarchy, under the manager with the given Manager Id
+     *
+     * @param employee the new employee, a null Manager Id makes them the CEO of an empty hierarchy
+     *
+     * @return the added employee
+     */
+    @RequestMapping(value = "/addEmployee", method = POST)
+    public @ResponseBody
+    Employee addEmployee(@RequestBody Employee employee) throws IOException {
+        LOGGER.debug("Web Service \"/addEmployee\" called.");
+        return hierarchyStorePersistence.add(employee.getName(), employee.getEmployeeId(), employee.getManagerId());
+    }
+
+    /**
+     * REST web service
+     *
+     * Removes one employee from the stored hierarchy, their subordinates now report to their manager
+     *
+     * @param employeeId id of the employee to remove
+     *
+     * @return the removed employee
+     */
+    @RequestMapping(value = "/removeEmployee", method = POST)
+    public @ResponseBody
+    Employee removeEmployee(@RequestParam("employeeId") Integer employeeId) throws IOException {
+        LOGGER.debug("Web Service \"/removeEmployee\" called.");
+        return hierarchyStorePersistence.remove(employeeId);
+    }
+
+    /**
+     * REST web service
+     *
+     * Changes the name of one employee in the stored hierarchy
+     *
+     * @param employeeId id of the employee to rename
+     * @param name the new name
+     *
+     * @return the renamed employee
+     */
+    @RequestMapping(value = "/renameEmployee", method = POST)
+    public @ResponseBody
+    Employee renameEmployee(@RequestParam("employeeId") Integer employeeId, @RequestParam("name") String name)
+            throws IOException {
+        LOGGER.debug("Web Service \"/renameEmployee\" called.");
+        return hierarchyStorePersistence.rename(employeeId, name);
+    }
+
+    /**
+     * REST web service
+     *
+     * Moves one employee, along with everyone under them, to another manager in the stored hierarchy
+     *
+     * @param employeeId id of the employee to move
+     * @param managerId id of the new manager
+     *
+     * @return the moved employee
+     */
+    @RequestMapping(value = "/moveEmployee", method = POST)
+    public @ResponseBody
+    Employee moveEmployee(@RequestParam("employeeId") Integer employeeId,
+                          @RequestParam(value = "managerId", required = false) Integer managerId)
+            throws IOException {
+        LOGGER.debug("Web Service \"/moveEmployee\" called.");
+        return hierarchyStorePersistence.move(employeeId, managerId);
+    }
+
+    /**
+     * REST web service
+     *
+     * Lists everyone under a manager in the stored hierarchy, directly or indirectly
+     *
+     * @param managerId id of the manager
+     *
+     * @return the employees under the manager, each one followed by their own subordinates
+     */
+    @RequestMapping(value = "/getAllSubordinates", method = GET)
+    public @ResponseBody
+    List<Employee> getAllSubordinates(@RequestParam("managerId") Integer managerId) {
+        LOGGER.debug("Web Service \"/getAllSubordinates\" called.");
+        return hierarchyStore.getAllSubordinates(managerId);
+    }
+
+    /**
+     * REST web service
+     *
+     * Checks whether an employee reports to a manager in the stored hierarchy, directly or indirectly
+     *
+     * @param employeeId id of the employee
+     * @param managerId id of the manager
+     *
+     * @return true if the employee is under the manager
+     */
+    @RequestMapping(value = "/reportsTo", method = GET)
+    public @ResponseBody
+    boolean reportsTo(@RequestParam("employeeId") Integer employeeId, @RequestParam("managerId") Integer managerId) {
+        return hierarchyStore.reportsTo(employeeId, managerId);
+    }
+
+    /**
+     * REST web service
+     *
+     * Returns the management chain of an employee in the stored hierarchy
+     *
+     * @param employeeId id of the employee
+     *
+     * @return the employee's managers, from the direct manager up to the CEO
+     */
+    @RequestMapping(value = "/getReportingChain", method = GET)
+    public @ResponseBody
+    List<Employee> getReportingChain(@RequestParam("employeeId") Integer employeeId) {
+        return hierarchyStore.getReportingChain(employeeId);
+    }
+
+    /**
+     * REST web service
+     *
+     * Returns the manager of an employee at the given level of the stored hierarchy
+     *
+     * @param employeeId id of the employee
+     * @param level level of the manager (CEO is level 0)
+     *
+     * @return the manager at the given level, empty if the level is below the employee's
+     */
+    @RequestMapping(value = "/getManagerAtLevel", method = GET)
+    public @ResponseBody
+    Employee getManagerAtLevel(@RequestParam("employeeId") Integer employeeId, @RequestParam("level") int level) {
+        return hierarchyStore.getManagerAtLevel(employeeId, level);
+    }
+
+    /**
+     * REST web service
+     *
+     * Returns the lowest manager two employees of the stored hierarchy both report to
+     *
+     * @param employeeId id of one employee
+     * @param otherEmployeeId id of the other employee
+     *
+     * @return the lowest common manager, empty if one of the employees is the CEO
+     */
+    @RequestMapping(value = "/getLowestCommonManager", method = GET)
+    public @ResponseBody
+    Employee getLowestCommonManager(@RequestParam("employeeId") Integer employeeId,
+                                    @RequestParam("otherEmployeeId") Integer otherEmployeeId) {
+        return hierarchyStore.getLowestCommonManager(employeeId, otherEmployeeId);
+    }
+
+    /**
+     * REST web service
+     *
+     * Returns HTML table that represents the current state of the stored hierarchy
+     *
+     * @return html snippet of a table that represents the stored organizational hierarchy
+     */
+    @RequestMapping(value = "/getStoredEmployeeHierarchyAsHTML", method = GET)
+    public ResponseEntity<StreamingResponseBody> getStoredHierarchyAsHTML() {
+        LOGGER.debug("Web Service \"/getStoredEmployeeHierarchyAsHTML\" called.");
+        long start = System.nanoTime();
+        return htmlResponse("/getStoredEmployeeHierarchyAsHTML", start, hierarchyStore.getCompactHierarchy(), null);
+    }
+
+    /**
+     * Reads the employee list in the format given by the Content-Type, JSON unless it's the binary employee format.
+     *  Reading stops once the worker is interrupted at the deadline of the request.
+     *
+     * @param allEmployees the request body
+     * @param contentType Content-Type of the request, may be null
+     *
+     * @return the hierarchy of the employees
+     */
+    private CompactHierarchy readHierarchy(InputStream allEmployees, String contentType) throws IOException {
+        InputStream employees = new InterruptibleInputStream(allEmployees);
+        if (contentType != null && BINARY.includes(MediaType.parseMediaType(contentType)))
+            return employeeHierarchyService.getCompactHierarchyFromBinary(employees);
+        return employeeHierarchyService.getCompactHierarchy(employees);
+    }
+
+    /**
+     * @param accept Accept header of the request, may be null
+     * @param mediaTypes the media types the response can be written in
+     *
+     * @return the explicitly accepted media type with the highest quality value, null if none of them is
+     *  accepted. Wildcards don't count, and types accepted with q=0 are refused.
+     */
+    private static MediaType getPreferredType(String accept, MediaType... mediaTypes) {
+        if (accept == null)
+            return null;
+        List<MediaType> acceptedTypes = MediaType.parseMediaTypes(accept);
+        MediaType.sortByQualityValue(acceptedTypes);
+        for (MediaType acceptedType : acceptedTypes) {
+            if (acceptedType.getQualityValue() == 0)
+                continue;
+            for (MediaType mediaType : mediaTypes) {
+                if (mediaType.includes(acceptedType))
+                    return mediaType;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the HTML table of the hierarchy to the response while it is produced,
+     *  and logs the summary of the request once it's written
+     *
+     * @param path path of the web service
+     * @param requestStart System.nanoTime() at the start of the request
+     * @param hierarchy the hierarchy to write
+     * @param rendering the table if it was rendered already, null to render it while writing
+     *
+     * @return response streaming the table
+     */
+    private ResponseEntity<StreamingResponseBody> htmlResponse(String path, long requestStart,
+                                                               CompactHierarchy hierarchy, String rendering) {
+        long buildNanos = System.nanoTime() - requestStart;
+        return ResponseEntity.ok()
+                .contentType(HTML_UTF8)
+                .body(response -> {
+                    long start = System.nanoTime();
+                    CountingOutputStream output = new CountingOutputStream(response);
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8),
+                            RESPONSE_BUFFER_SIZE);
+                    if (rendering != null)
+                        writer.write(rendering);
+                    else
+                        EmployeeHierarchyFormatter.writeHTMLRepresentation(hierarchy, writer);
+                    writer.flush();
+                    hierarchyMetrics.record(Phase.RENDER, start);
+                    hierarchyMetrics.recordOutputBytes(output.getCount());
+                    hierarchyRequestLog.log(path, hierarchy, buildNanos, System.nanoTime() - start, output.getCount());
+                });
+    }
+
+    /**
+     * Returns the validation report of an invalid employee list with a Bad Request status,
+     *  so the caller learns about every bad row in one round trip
+     *
+     * @param exception the exception thrown by the service for the invalid list
+     *
+     * @return the report listing every broken rule with the offending employees
+     */
+    @ExceptionHandler(InvalidEmployeeListException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public @ResponseBody
+    ValidationReport handleInvalidEmployeeList(InvalidEmployeeListException exception) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Invalid employee list, violations: {}", exception.getReport().getViolations().stream()
+                    .map(violation -> violation.getType() + " x" + violation.getRows().length)
+                    .collect(Collectors.joining(", ")));
+        }
+        return exception.getReport();
+    }
+
+    /**
+     * Returns a Bad Request status when the request body is not a JSON array of employees
+     *
+     * @param exception the exception thrown while reading the request body
+     *
+     * @return the reason the body could not be read
+     */
+    @ExceptionHandler(JsonProcessingException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public @ResponseBody
+    String handleMalformedEmployeeList(JsonProcessingException exception) {
+        LOGGER.debug("Malformed employee list: {}", exception.getOriginalMessage());
+        return exception.getOriginalMessage();
+    }
+
+    /**
+     * Returns a Bad Request status when the request body doesn't follow the binary employee format
+     *
+     * @param exception the exception thrown while reading the request body
+     *
+     * @return the reason the body could not be read
+     */
+    @ExceptionHandler(BinaryFormatException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public @ResponseBody
+    String handleMalformedBinaryEmployeeList(BinaryFormatException exception) {
+        LOGGER.debug("Malformed binary employee list: {}", exception.getMessage());
+        return exception.getMessage();
+    }
+
+    /**
+     * Returns a Too Many Requests status when the request was not admitted, with a hint to retry shortly
+     *
+     * @param exception the exception thrown when the queue of the request's size was full
+     *
+     * @return the reason the request was not admitted
+     */
+    @ExceptionHandler(RequestRejectedException.class)
+    public ResponseEntity<String> handleRejectedRequest(RequestRejectedException exception) {
+        LOGGER.debug("Request rejected: {}", exception.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS))
+                .body(exception.getMessage());
+    }
+
+    /**
+     * Returns a Too Many Requests status when every writer of response bodies is busy and their queue is full
+     *
+     * @param exception the exception thrown by the pool of ResponseWriterConfiguration
+     *
+     * @return the reason the response was not written
+     */
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> handleRejectedResponse(TaskRejectedException exception) {
+        LOGGER.debug("Response rejected: {}", exception.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS))
+                .body("Too many responses waiting to be written, try again later");
+    }
+
+    /**
+     * Returns a Service Unavailable status when the request didn't finish before its deadline
+     *
+     * @param exception the result set at the deadline of the request
+     *
+     * @return the reason the request was cancelled
+     */
+    @ExceptionHandler(RequestTimeoutException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public @ResponseBody
+    String handleTimedOutRequest(RequestTimeoutException exception) {
+        LOGGER.debug("Request timed out: {}", exception.getMessage());
+        return exception.getMessage();
+    }
+
+    /**
+     * Returns a Not Found status for a cursor that is malformed or whose hierarchy is no longer cached
+     *
+     * @param exception the exception thrown while following the cursor
+     *
+     * @return the reason the cursor can't be followed
+     */
+    @ExceptionHandler(UnknownCursorException.class)
+    @ResponseStatus(HttpStatus.NOT_FOUND)
+    public @ResponseBody
+    String handleUnknownCursor(UnknownCursorException exception) {
+        LOGGER.debug("Unknown cursor: {}", exception.getMessage());
+        return exception.getMessage();
+    }
+
+    /**
+     * Returns a Service Unavailable status for a paged request whose hierarchy can't be kept in the cache
+     *
+     * @param exception the exception thrown while paging the hierarchy
+     *
+     * @return the reason the hierarchy can't be paged
+     */
+    @ExceptionHandler(UncachedHierarchyException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public @ResponseBody
+    String handleUncachedHierarchy(UncachedHierarchyException exception) {
+        LOGGER.debug("Uncached hierarchy: {}", exception.getMessage());
+        return exception.getMessage();
+    }
+
+    /**
+     * Returns a Bad Request status for paging parameters out of their range, e.g. a page size that is too large
+     *
+     * @param exception the exception thrown for the parameter
+     *
+     * @return the reason the request was refused
+     */
+    @ExceptionHandler(InvalidPageRequestException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public @ResponseBody
+    String handleInvalidPageRequest(InvalidPageRequestException exception) {
+        LOGGER.debug("Invalid page request: {}", exception.getMessage());
+        return exception.getMessage();
     }
 
 }
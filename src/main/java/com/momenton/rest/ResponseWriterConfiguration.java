@@ -0,0 +1,50 @@
+package com.momenton.rest;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Writes streamed response bodies (StreamingResponseBody) on a bounded pool of workers.
+ *
+ * Hierarchies are built on the pools of HierarchyRequestExecutor, but their rendering and serialization
+ *  run once the response is dispatched, on Spring MVC's async executor, which by default starts a thread
+ *  for every response. This pool caps the writers at hierarchy.executor.writer-threads with a bounded queue;
+ *  a response that doesn't fit in it is rejected with TaskRejectedException, and a write still running
+ *  after hierarchy.executor.deadline-ms times out like the build of a request.
+ */
+@Configuration
+public class ResponseWriterConfiguration extends WebMvcConfigurerAdapter {
+
+    // writers of response bodies, 0 for one per available processor
+    @Value("${hierarchy.executor.writer-threads:0}")
+    private int writerThreads;
+
+    @Value("${hierarchy.executor.writer-queue-capacity:256}")
+    private int writerQueueCapacity = 256;
+
+    @Value("${hierarchy.executor.deadline-ms:60000}")
+    private long deadlineMillis = 60000;
+
+    @Bean
+    public ThreadPoolTaskExecutor responseWriters() {
+        int threads = writerThreads > 0 ? writerThreads : Runtime.getRuntime().availableProcessors();
+        ThreadPoolTaskExecutor responseWriters = new ThreadPoolTaskExecutor();
+        responseWriters.setCorePoolSize(threads);
+        responseWriters.setMaxPoolSize(threads);
+        responseWriters.setQueueCapacity(writerQueueCapacity);
+        responseWriters.setThreadNamePrefix("hierarchy-response-writer-");
+        responseWriters.setDaemon(true);
+        return responseWriters;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(responseWriters());
+        configurer.setDefaultTimeout(deadlineMillis);
+    }
+
+}
@@ -0,0 +1,379 @@
+package com.momenton.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only file of the single employee changes made to the stored hierarchy.
+ *
+ * Every record is its payload length, a CRC32 of the payload and the payload: the kind of change,
+ *  the employee id, the manager id and the name. The records of a group commit are followed by a commit
+ *  marker: a magic number, the position of the commit's first record and a CRC32 of both. A commit is only
+ *  complete once all its records and its marker are, and only complete commits are replayed.
+ *
+ * A crash can only tear the last commit, as the next one is written after it is forced, and the pages of an
+ *  unforced commit may reach the disk in any order. So an incomplete commit at the end is dropped when the
+ *  journal is opened again, even if some of its records or its marker made it. An incomplete commit followed
+ *  by a complete one means the file was damaged otherwise, and opening it fails instead of dropping the
+ *  changes after it.
+ *
+ * Changes are appended to an in-memory batch and written with group commits: the first caller waiting for
+ *  its change to be on disk writes and forces the whole batch, covering every change appended before it,
+ *  while the following changes collect in the next batch. One force serves many concurrent changes.
+ *  If a write or force fails, every change not known to be on disk fails with it and the journal takes no
+ *  more changes: HierarchyStorePersistence then saves the whole state to a new generation instead.
+ */
+public class ChangeJournal implements Closeable {
+
+    private static final int MAGIC = 0x484a4e4c; // "HJNL"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 8;
+    // length and checksum
+    private static final int RECORD_HEADER_BYTES = 8;
+    // kind, employee id, has manager, manager id, name length
+    private static final int FIXED_PAYLOAD_BYTES = 14;
+    private static final int COMMIT_MARK = 0x4a434d54; // "JCMT"
+    // mark, position of the commit's first record and checksum
+    private static final int COMMIT_BYTES = 16;
+    private static final int INITIAL_BATCH_BYTES = 64 * 1024;
+
+    /**
+     * The kinds of changes, stored by ordinal so new kinds must be added at the end
+     */
+    public enum Change {
+        ADD, REMOVE, RENAME, MOVE
+    }
+
+    /**
+     * Receives the changes read from a journal, in the order they were made
+     */
+    public interface ChangeHandler {
+        /**
+         * @param change the kind of change
+         * @param employeeId id of the changed employee
+         * @param managerId manager id of an added or moved employee, null for the CEO and the other kinds
+         * @param name name of an added or renamed employee, null for the other kinds
+         */
+        void accept(Change change, int employeeId, Integer managerId, String name);
+    }
+
+    /**
+     * Opens the file of a journal for reading and writing, so tests can make its writes fail
+     */
+    interface ChannelOpener {
+        FileChannel open(Path file) throws IOException;
+    }
+
+    static final ChannelOpener FILE_CHANNELS = file -> FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    private final FileChannel channel;
+    private final CRC32 checksum = new CRC32();
+    // only used by the thread writing a group commit
+    private final CRC32 commitChecksum = new CRC32();
+    private long written;
+
+    // changes waiting for the next group commit, and the buffer of the commit in progress
+    private ByteBuffer batch = newBatch(INITIAL_BATCH_BYTES);
+    private ByteBuffer spare = newBatch(INITIAL_BATCH_BYTES);
+    private long appended;
+    private long durable;
+    private boolean writing;
+    private IOException failure;
+    private long size;
+
+    private ChangeJournal(FileChannel channel, long size) {
+        this.channel = channel;
+        this.size = size;
+        this.written = size;
+    }
+
+    /**
+     * Opens a journal for appending, creating it if it doesn't exist. The changes already in the journal
+     *  are passed to the handler first, and an incomplete record at its end is cut off.
+     *
+     * @param file the journal file
+     * @param handler receives the changes already in the journal
+     *
+     * @return the opened journal, positioned after its last complete commit
+     * @throws IOException if the file can't be read or written, isn't a journal, or has an incomplete commit
+     *  before its last one
+     */
+    public static ChangeJournal open(Path file, ChangeHandler handler) throws IOException {
+        return open(file, handler, FILE_CHANNELS);
+    }
+
+    static ChangeJournal open(Path file, ChangeHandler handler, ChannelOpener channelOpener) throws IOException {
+        FileChannel channel = channelOpener.open(file);
+        try {
+            long end;
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                channel.force(true);
+                end = HEADER_BYTES;
+            } else {
+                end = replay(file, handler);
+                // drop a commit torn by a crash, new commits go right after the last complete one
+                channel.truncate(end);
+            }
+            channel.position(end);
+            return new ChangeJournal(channel, end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // passes the records of every complete commit to the handler, returns the position after the last commit
+    private static long replay(Path file, ChangeHandler handler) throws IOException {
+        ByteBuffer content = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        if (content.remaining() < HEADER_BYTES || content.getInt() != MAGIC)
+            throw new IOException("Not a change journal: " + file);
+        int version = content.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported change journal version " + version + ": " + file);
+
+        CRC32 checksum = new CRC32();
+        Change[] changes = Change.values();
+        int end = content.position();
+        while (end < content.limit()) {
+            int commitEnd = getCommitEnd(content, end, checksum);
+            if (commitEnd < 0) {
+                if (hasCommitAfter(content, end, checksum))
+                    throw new IOException("Incomplete commit in change journal " + file + " at " + end
+                            + ", followed by complete commits");
+                // torn by a crash
+                break;
+            }
+
+            content.position(end);
+            while (content.position() < commitEnd - COMMIT_BYTES) {
+                int start = content.position();
+                int length = content.getInt();
+                content.position(start + RECORD_HEADER_BYTES);
+                int kind = content.get();
+                int employeeId = content.getInt();
+                boolean hasManager = content.get() != 0;
+                int managerId = content.getInt();
+                int nameLength = content.getInt();
+                if (kind < 0 || kind >= changes.length || nameLength < -1 || nameLength > length - FIXED_PAYLOAD_BYTES)
+                    throw new IOException("Unknown change in journal " + file + " at " + start);
+                String name = nameLength < 0 ? null
+                        : new String(content.array(), content.position(), nameLength, StandardCharsets.UTF_8);
+                content.position(start + RECORD_HEADER_BYTES + length);
+                handler.accept(changes[kind], employeeId, hasManager ? managerId : null, name);
+            }
+            end = commitEnd;
+        }
+        return end;
+    }
+
+    // position after the marker of the commit starting at the given position,
+    //  or -1 unless all its records and its marker are complete
+    private static int getCommitEnd(ByteBuffer content, int start, CRC32 checksum) {
+        int position = start;
+        while (!isCommitMarker(content, position, start, checksum)) {
+            // a record never starts with the commit mark, its length is far smaller
+            int length = getCompleteRecordLength(content, position, checksum);
+            if (length < 0)
+                return -1;
+            position += RECORD_HEADER_BYTES + length;
+        }
+        return position + COMMIT_BYTES;
+    }
+
+    // true if a complete marker of the commit starting at commitStart is at the given position
+    private static boolean isCommitMarker(ByteBuffer content, int position, long commitStart, CRC32 checksum) {
+        if (content.limit() - position < COMMIT_BYTES || content.getInt(position) != COMMIT_MARK
+                || content.getLong(position + Integer.BYTES) != commitStart)
+            return false;
+        checksum.reset();
+        checksum.update(content.array(), content.arrayOffset() + position, COMMIT_BYTES - Integer.BYTES);
+        return checksum.getValue() == (content.getInt(position + COMMIT_BYTES - Integer.BYTES) & 0xffffffffL);
+    }
+
+    // payload length of the record at the given position, or -1 unless it is complete and its checksum matches
+    private static int getCompleteRecordLength(ByteBuffer content, int start, CRC32 checksum) {
+        if (content.limit() - start < RECORD_HEADER_BYTES)
+            return -1;
+        int length = content.getInt(start);
+        if (length < FIXED_PAYLOAD_BYTES || length > content.limit() - start - RECORD_HEADER_BYTES)
+            return -1;
+        checksum.reset();
+        checksum.update(content.array(), content.arrayOffset() + start + RECORD_HEADER_BYTES, length);
+        return checksum.getValue() == (content.getInt(start + Integer.BYTES) & 0xffffffffL) ? length : -1;
+    }
+
+    // looks for a complete commit starting after an incomplete one, only the last commit can be torn by a crash.
+    //  The marker of the torn commit itself may have been written, it doesn't count. Every complete commit
+    //  found is walked once, so the whole scan stays linear in the size of the journal.
+    private static boolean hasCommitAfter(ByteBuffer content, int incompleteStart, CRC32 checksum) {
+        for (int position = incompleteStart + 1; position <= content.limit() - COMMIT_BYTES; position++) {
+            if (content.getInt(position) != COMMIT_MARK)
+                continue;
+            long commitStart = content.getLong(position + Integer.BYTES);
+            if (commitStart > incompleteStart && commitStart <= position
+                    && isCommitMarker(content, position, commitStart, checksum)
+                    && getCommitEnd(content, (int) commitStart, checksum) == position + COMMIT_BYTES)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a change to the next group commit, without waiting for it to be written
+     *
+     * @param change the kind of change
+     * @param employeeId id of the changed employee
+     * @param managerId manager id of an added or moved employee, null for the CEO and the other kinds
+     * @param name name of an added or renamed employee, null for the other kinds
+     *
+     * @return sequence number of the change, to be passed to awaitDurable(...)
+     * @throws IOException if an earlier write failed, the journal can't be trusted after that
+     */
+    public synchronized long append(Change change, int employeeId, Integer managerId, String name) throws IOException {
+        if (failure != null)
+            throw new IOException("Change journal failed earlier", failure);
+        byte[] nameBytes = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+        int length = FIXED_PAYLOAD_BYTES + (nameBytes == null ? 0 : nameBytes.length);
+        // the commit marker always fits after the records
+        if (batch.remaining() < RECORD_HEADER_BYTES + length + COMMIT_BYTES) {
+            ByteBuffer larger = newBatch(Math.max(batch.capacity() * 2,
+                    batch.position() + RECORD_HEADER_BYTES + length + COMMIT_BYTES));
+            batch.flip();
+            larger.put(batch);
+            batch = larger;
+        }
+
+        int start = batch.position();
+        batch.putInt(length).putInt(0);
+        batch.put((byte) change.ordinal())
+                .putInt(employeeId)
+                .put((byte) (managerId == null ? 0 : 1))
+                .putInt(managerId == null ? 0 : managerId)
+                .putInt(nameBytes == null ? -1 : nameBytes.length);
+        if (nameBytes != null)
+            batch.put(nameBytes);
+
+        ByteBuffer payload = batch.duplicate();
+        payload.position(start + RECORD_HEADER_BYTES);
+        payload.limit(batch.position());
+        checksum.reset();
+        checksum.update(payload);
+        batch.putInt(start + Integer.BYTES, (int) checksum.getValue());
+
+        size += RECORD_HEADER_BYTES + length;
+        return ++appended;
+    }
+
+    /**
+     * Returns once the change with the given sequence number, and every change before it, is on disk
+     *
+     * @param sequence sequence number returned by append(...)
+     * @throws IOException if the changes couldn't be written
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        ByteBuffer commit;
+        long commitEnd;
+        synchronized (this) {
+            while (true) {
+                if (failure != null)
+                    throw new IOException("Change journal failed earlier", failure);
+                if (durable >= sequence)
+                    return;
+                if (!writing)
+                    break;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the change journal");
+                }
+            }
+            // this thread commits everything appended so far, later changes go to the other buffer
+            writing = true;
+            commit = batch;
+            commitEnd = appended;
+            batch = spare;
+            size += COMMIT_BYTES;
+        }
+
+        IOException error = null;
+        try {
+            int markerStart = commit.position();
+            commit.putInt(COMMIT_MARK).putLong(written);
+            commitChecksum.reset();
+            commitChecksum.update(commit.array(), commit.arrayOffset() + markerStart, COMMIT_BYTES - Integer.BYTES);
+            commit.putInt((int) commitChecksum.getValue());
+            written += commit.position();
+            commit.flip();
+            while (commit.hasRemaining()) {
+                channel.write(commit);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+
+        synchronized (this) {
+            commit.clear();
+            spare = commit;
+            writing = false;
+            if (error == null)
+                durable = commitEnd;
+            else
+                failure = error;
+            notifyAll();
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * @return true once a write or force failed, nothing can be appended after that
+     */
+    public synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    /**
+     * @return size of the journal file, including the changes that are not written yet
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Writes the remaining changes and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        long last;
+        synchronized (this) {
+            last = appended;
+        }
+        try {
+            awaitDurable(last);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static ByteBuffer newBatch(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}
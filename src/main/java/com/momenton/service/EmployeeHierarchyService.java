@@ -1,8 +1,13 @@
 package com.momenton.service;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.momenton.model.CompactHierarchy;
 import com.momenton.model.Employee;
 import com.momenton.model.EmployeeHierarchy;
+import com.momenton.model.ValidationReport;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 public interface EmployeeHierarchyService {
@@ -14,9 +19,63 @@ public interface EmployeeHierarchyService {
      * @param allEmployees list of all employees in the organization
      *
      * @return Employee Hierarchy if the list is valid and throws a RuntimeException otherwise
+     *  (InvalidEmployeeListException with the validation report if a rule is broken)
      */
     EmployeeHierarchy getEmployeeHierarchy(List<Employee> allEmployees);
 
+    /**
+     * Checks if the provided list is valid and then arranges the data into a memory compact hierarchy,
+     *  without creating an Employee/Manager object per employee
+     *
+     * @param allEmployees list of all employees in the organization
+     *
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     */
+    CompactHierarchy getCompactHierarchy(List<Employee> allEmployees);
+
+    /**
+     * Reads the employees from a JSON stream, validating and indexing each employee as soon as it is read,
+     *  and then arranges them into a memory compact hierarchy
+     *
+     * @param employeesJson stream holding a JSON array of all employees in the organization
+     *
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     * @throws IOException if the stream can't be read or doesn't hold an array of employees
+     */
+    CompactHierarchy getCompactHierarchy(InputStream employeesJson) throws IOException;
+
+    /**
+     * Same as getCompactHierarchy(InputStream), for an array that is part of a larger JSON document.
+     *  The hierarchy is neither looked up in nor added to a hierarchy cache, so bulk requests
+     *  don't evict the hierarchies of other requests.
+     *
+     * @param employeesJson parser whose next token starts a JSON array of all employees in the organization
+     *
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     * @throws IOException if the parser can't be read or doesn't hold an array of employees
+     */
+    CompactHierarchy getUncachedCompactHierarchy(JsonParser employeesJson) throws IOException;
+
+    /**
+     * Reads the employees from a stream in the binary employee format, validating and indexing each employee
+     *  as soon as it is read, and then arranges them into a memory compact hierarchy
+     *
+     * @param employeesBinary stream holding all employees in the organization, see EmployeeBinaryFormat
+     *
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     * @throws IOException if the stream can't be read or doesn't hold a binary employee list
+     */
+    CompactHierarchy getCompactHierarchyFromBinary(InputStream employeesBinary) throws IOException;
+
     boolean isValidList(List<Employee> employees);
 
+    /**
+     * Checks the provided list against all the validation rules
+     *
+     * @param employees list of employees to validate
+     *
+     * @return report listing every broken rule along with the offending employees
+     */
+    ValidationReport validate(List<Employee> employees);
+
 }
@@ -0,0 +1,278 @@
+package com.momenton.service;
+
+import com.momenton.model.ValidationReport;
+import com.momenton.model.ValidationReport.Violation;
+import com.momenton.model.ValidationReport.ViolationType;
+import com.momenton.util.IntIntHashMap;
+import com.momenton.util.IntList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks all the rules of an employee list in a single pass. Employees are fed one at a time through
+ *  accept(...), so the same validator works for a list in memory and for employees read from a stream.
+ *  Manager ids are checked against the collected employee ids once all employees are seen.
+ *
+ * The chains of managers are then followed once for every employee, on arrays indexed by row, to find the
+ *  reporting cycles and the employees whose chain never reaches the CEO. This takes time linear in the size
+ *  of the list, and a list that can't form a hierarchy is rejected before any hierarchy is built for it.
+ *
+ * Not thread safe, create one validator per employee list.
+ */
+public class EmployeeListValidator {
+
+    // returned by the id index for ids that were not seen yet
+    private static final int NOT_SEEN = -1;
+    // reported in place of a null employee id
+    private static final int MISSING_ID = 0;
+    // manager row of an employee without a manager id
+    private static final int TOP = -1;
+    // manager row of an employee whose manager id is unknown or their own
+    private static final int BROKEN = -2;
+    // group of an employee whose chain of managers wasn't followed yet, or is being followed
+    private static final int UNVISITED = Integer.MIN_VALUE;
+    private static final int ON_PATH = Integer.MIN_VALUE + 1;
+
+    // employee id -> row of the first employee that has it
+    private final IntIntHashMap seenIds;
+    // non null manager ids along with their rows and employee ids, checked in getReport()
+    private final IntList managerIds;
+    private final IntList managerRows;
+    private final IntList managerEmployeeIds;
+    // employees with no manager id (CEO candidates)
+    private final IntList cEOIds = new IntList(1);
+    private final IntList cEORows = new IntList(1);
+
+    // employee id of every row
+    private final IntList rowIds;
+
+    private final Map<ViolationType, IntList[]> violations = new EnumMap<>(ViolationType.class);
+
+    private int row;
+
+    /**
+     * @param expectedSize number of employees expected, used to size the internal tables up front
+     */
+    public EmployeeListValidator(int expectedSize) {
+        seenIds = new IntIntHashMap(expectedSize, NOT_SEEN);
+        managerIds = new IntList(expectedSize);
+        managerRows = new IntList(expectedSize);
+        managerEmployeeIds = new IntList(expectedSize);
+        rowIds = new IntList(expectedSize);
+    }
+
+    /**
+     * Checks the rules that can be checked by looking at one employee, and records the
+     *  employee for the rules that need the whole list
+     *
+     * @param name employee name
+     * @param employeeId employee id
+     * @param managerId manager id, null for the CEO
+     */
+    public void accept(String name, Integer employeeId, Integer managerId) {
+        accept(name, employeeId != null, employeeId == null ? MISSING_ID : employeeId,
+                managerId != null, managerId == null ? 0 : managerId);
+    }
+
+    /**
+     * Same as accept(String, Integer, Integer), for employees read without boxing their ids
+     *
+     * @param name employee name
+     * @param employeeId employee id
+     * @param hasManager false for the CEO
+     * @param managerId manager id, ignored for the CEO
+     */
+    public void accept(String name, int employeeId, boolean hasManager, int managerId) {
+        accept(name, true, employeeId, hasManager, managerId);
+    }
+
+    private void accept(String name, boolean hasEmployeeId, int id, boolean hasManager, int managerId) {
+        int currentRow = row++;
+        rowIds.add(id);
+
+        // names must not be null or empty strings
+        if (name == null || name.isEmpty())
+            addViolation(ViolationType.INVALID_EMPLOYEE_NAME, id, currentRow);
+
+        // ids must be unique positive integers
+        if (!hasEmployeeId || id <= 0)
+            addViolation(ViolationType.INVALID_EMPLOYEE_ID, id, currentRow);
+        else if (seenIds.put(id, currentRow) != NOT_SEEN)
+            addViolation(ViolationType.DUPLICATE_EMPLOYEE_ID, id, currentRow);
+
+        if (!hasManager) {
+            cEOIds.add(id);
+            cEORows.add(currentRow);
+        } else if (hasEmployeeId && managerId == id) {
+            addViolation(ViolationType.EMPLOYEE_IS_OWN_MANAGER, id, currentRow);
+        } else {
+            // can only be checked once all the employee ids are known
+            managerIds.add(managerId);
+            managerRows.add(currentRow);
+            managerEmployeeIds.add(id);
+        }
+    }
+
+    /**
+     * Completes the rules that need the whole list and builds the report
+     *
+     * @return report listing every violation found, valid if there is none
+     */
+    public ValidationReport getReport() {
+        // exactly one employee with no manager (The CEO)
+        if (cEOIds.isEmpty())
+            addViolation(ViolationType.NO_CEO, new int[0], new int[0]);
+        else if (cEOIds.size() > 1)
+            addViolation(ViolationType.MORE_THAN_ONE_CEO, cEOIds.toArray(), cEORows.toArray());
+
+        // manager ids must refer to one of the employees
+        for (int index = 0; index < managerIds.size(); index++) {
+            if (!seenIds.containsKey(managerIds.get(index)))
+                addViolation(ViolationType.UNKNOWN_MANAGER_ID, managerEmployeeIds.get(index), managerRows.get(index));
+        }
+
+        // report the violations in the order the rules are declared
+        List<Violation> report = new ArrayList<>(violations.size());
+        for (Map.Entry<ViolationType, IntList[]> violation : violations.entrySet()) {
+            IntList[] idsAndRows = violation.getValue();
+            report.add(new Violation(violation.getKey(), idsAndRows[0].toArray(), idsAndRows[1].toArray()));
+        }
+
+        // with duplicate ids a manager id doesn't name a single employee, so the chains can't be followed
+        if (!violations.containsKey(ViolationType.DUPLICATE_EMPLOYEE_ID))
+            addChainViolations(report);
+        return new ValidationReport(report);
+    }
+
+    /**
+     * Follows the chain of managers of every employee, and reports every reporting cycle and every group of
+     *  employees whose chain ends in the same cycle or at the same employee with a bad manager id.
+     *  Each employee is put on a chain once: once the end of a chain is known, it is recorded for every
+     *  employee on the chain, and the chains that reach them later stop there.
+     *
+     * @param report the violations found so far, the violations of the chains are added at the end
+     */
+    private void addChainViolations(List<Violation> report) {
+        int size = row;
+        int[] managerRowOf = new int[size];
+        Arrays.fill(managerRowOf, BROKEN);
+        for (int index = 0; index < cEORows.size(); index++) {
+            managerRowOf[cEORows.get(index)] = TOP;
+        }
+        for (int index = 0; index < managerRows.size(); index++) {
+            int managerRow = seenIds.get(managerIds.get(index));
+            if (managerRow != NOT_SEEN)
+                managerRowOf[managerRows.get(index)] = managerRow;
+        }
+
+        // 0 for employees under an employee without a manager id, otherwise the group of the chain's end:
+        //  negative for the employees at the end (the cycle, or the employee with a bad manager id)
+        //  and positive for the employees orphaned by them
+        int[] groups = new int[size];
+        Arrays.fill(groups, UNVISITED);
+        // row of an employee at the end of each group, the group of index 0 is the one under the CEO
+        IntList groupEnds = new IntList();
+        groupEnds.add(TOP);
+        BitSet cycleGroups = new BitSet();
+        int orphanCount = 0;
+        IntList path = new IntList();
+        for (int start = 0; start < size; start++) {
+            if (groups[start] != UNVISITED)
+                continue;
+
+            path.clear();
+            int current = start;
+            while (current >= 0 && groups[current] == UNVISITED) {
+                groups[current] = ON_PATH;
+                path.add(current);
+                current = managerRowOf[current];
+            }
+
+            int group;
+            int orphans = path.size();
+            if (current == TOP) {
+                group = 0;
+            } else if (current == BROKEN) {
+                group = groupEnds.size();
+                groupEnds.add(path.get(--orphans));
+                groups[groupEnds.get(group)] = -group;
+            } else if (groups[current] == ON_PATH) {
+                // the chain came back to one of its own employees, everyone from there on is in the cycle
+                group = groupEnds.size();
+                groupEnds.add(current);
+                cycleGroups.set(group);
+                do {
+                    groups[path.get(--orphans)] = -group;
+                } while (path.get(orphans) != current);
+                int[] cycleRows = new int[path.size() - orphans];
+                int[] cycleIds = new int[cycleRows.length];
+                for (int index = 0; index < cycleRows.length; index++) {
+                    cycleRows[index] = path.get(orphans + index);
+                    cycleIds[index] = rowIds.get(cycleRows[index]);
+                }
+                report.add(new Violation(ViolationType.REPORTING_CYCLE, cycleIds, cycleRows,
+                        "Each employee reports to the next one, and the last one to the first"));
+            } else {
+                group = Math.abs(groups[current]);
+            }
+            for (int index = 0; index < orphans; index++) {
+                groups[path.get(index)] = group;
+            }
+            if (group != 0)
+                orphanCount += orphans;
+        }
+        if (orphanCount == 0)
+            return;
+
+        // bucket the orphaned employees by group, keeping them in the order of the list
+        int[] groupOffsets = new int[groupEnds.size() + 1];
+        for (int current = 0; current < size; current++) {
+            if (groups[current] > 0)
+                groupOffsets[groups[current] + 1]++;
+        }
+        for (int group = 0; group < groupEnds.size(); group++) {
+            groupOffsets[group + 1] += groupOffsets[group];
+        }
+        int[] orphanRows = new int[orphanCount];
+        int[] nextSlot = Arrays.copyOf(groupOffsets, groupEnds.size());
+        for (int current = 0; current < size; current++) {
+            if (groups[current] > 0)
+                orphanRows[nextSlot[groups[current]]++] = current;
+        }
+        for (int group = 1; group < groupEnds.size(); group++) {
+            int from = groupOffsets[group];
+            int to = groupOffsets[group + 1];
+            if (from == to)
+                continue;
+            int[] rows = Arrays.copyOfRange(orphanRows, from, to);
+            int[] ids = new int[rows.length];
+            for (int index = 0; index < rows.length; index++) {
+                ids[index] = rowIds.get(rows[index]);
+            }
+            int endId = rowIds.get(groupEnds.get(group));
+            report.add(new Violation(ViolationType.ORPHANED_EMPLOYEE, ids, rows, cycleGroups.get(group)
+                    ? "The chain of managers ends in the reporting cycle of employee " + endId
+                    : "The chain of managers ends at employee " + endId + ", whose Manager Id is unknown or their own"));
+        }
+    }
+
+    private void addViolation(ViolationType type, int employeeId, int employeeRow) {
+        IntList[] idsAndRows = violations.computeIfAbsent(type, t -> new IntList[]{new IntList(), new IntList()});
+        idsAndRows[0].add(employeeId);
+        idsAndRows[1].add(employeeRow);
+    }
+
+    private void addViolation(ViolationType type, int[] employeeIds, int[] employeeRows) {
+        IntList[] idsAndRows = violations.computeIfAbsent(type, t -> new IntList[]{new IntList(), new IntList()});
+        for (int index = 0; index < employeeIds.length; index++) {
+            idsAndRows[0].add(employeeIds[index]);
+            idsAndRows[1].add(employeeRows[index]);
+        }
+    }
+
+}
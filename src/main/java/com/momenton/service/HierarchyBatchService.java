@@ -0,0 +1,179 @@
+package com.momenton.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.EmployeeHierarchy;
+import com.momenton.model.ValidationReport;
+import com.momenton.util.EmployeeJsonReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds the hierarchies of many organizations sent in one request.
+ *
+ * The request is read on the calling thread, one organization at a time: the tokens of its employee array
+ *  are buffered and handed to a fixed pool of workers (hierarchy.batch.threads), which validate and build it
+ *  while the next organization is read. The hand-over queue is bounded (hierarchy.batch.queue-capacity);
+ *  when it is full the calling thread builds the organization itself, which also stops it from buffering
+ *  more of the request than the workers can keep up with.
+ *
+ * Every organization gets its own result, an invalid or malformed employee list doesn't fail the others.
+ *  The hierarchies of a batch bypass the HierarchyCache, so a large batch doesn't evict the hierarchies
+ *  (and paging cursors) of interactive requests.
+ */
+@Service
+public class HierarchyBatchService {
+
+    // workers building hierarchies, 0 for one per available processor
+    @Value("${hierarchy.batch.threads:0}")
+    private int threads;
+
+    @Value("${hierarchy.batch.queue-capacity:64}")
+    private int queueCapacity = 64;
+
+    @Autowired
+    private EmployeeHierarchyService employeeHierarchyService;
+
+    @Autowired
+    private HierarchyMetrics hierarchyMetrics;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "hierarchy-batch-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reads a JSON object holding the employee list of every organization by its name, and builds
+     *  the hierarchy of each organization in parallel
+     *
+     * @param organizationsJson stream holding a JSON object of employee arrays, e.g. {"Momenton": [...], ...}
+     *
+     * @return the result of every organization by its name, in the order of the request
+     * @throws IOException if the stream can't be read, isn't a JSON object or names an organization twice
+     */
+    public Map<String, Result> getHierarchies(InputStream organizationsJson) throws IOException {
+        Map<String, Future<Result>> pending = new LinkedHashMap<>();
+        try (JsonParser parser = EmployeeJsonReader.createParser(organizationsJson)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonParseException(parser, "Expected an object of employee lists by organization");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String organization = parser.getCurrentName();
+                if (pending.containsKey(organization))
+                    throw new JsonParseException(parser, "Duplicate organization \"" + organization + "\"");
+                parser.nextToken();
+                TokenBuffer employees = new TokenBuffer(parser.getCodec(), false);
+                employees.copyCurrentStructure(parser);
+                pending.put(organization, executor.submit(() -> getResult(employees)));
+            }
+        } catch (IOException | RuntimeException e) {
+            pending.values().forEach(result -> result.cancel(true));
+            throw e;
+        }
+
+        Map<String, Result> results = new LinkedHashMap<>();
+        try {
+            for (Map.Entry<String, Future<Result>> entry : pending.entrySet()) {
+                results.put(entry.getKey(), entry.getValue().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.values().forEach(result -> result.cancel(true));
+            throw new InterruptedIOException("Interrupted while building the hierarchies");
+        } catch (ExecutionException e) {
+            pending.values().forEach(result -> result.cancel(true));
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw (RuntimeException) e.getCause();
+        }
+        return results;
+    }
+
+    private Result getResult(TokenBuffer employees) {
+        try (JsonParser parser = employees.asParser()) {
+            CompactHierarchy hierarchy = employeeHierarchyService.getUncachedCompactHierarchy(parser);
+            hierarchyMetrics.recordHierarchy(hierarchy);
+            return new Result(hierarchy.toEmployeeHierarchy(), null, null);
+        } catch (InvalidEmployeeListException e) {
+            return new Result(null, e.getReport(), null);
+        } catch (RuntimeException e) {
+            // the other rules the service enforces, e.g. a CEO without subordinates
+            return new Result(null, null, e.getMessage());
+        } catch (JsonProcessingException e) {
+            return new Result(null, null, e.getOriginalMessage());
+        } catch (IOException e) {
+            // the tokens are in memory already, reading them can't fail otherwise
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The outcome for one organization of a batch: its hierarchy, the validation report of an invalid
+     *  employee list, or the reason a malformed employee list could not be read
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Result {
+
+        private final EmployeeHierarchy hierarchy;
+        private final ValidationReport validationReport;
+        private final String error;
+
+        public Result(EmployeeHierarchy hierarchy, ValidationReport validationReport, String error) {
+            this.hierarchy = hierarchy;
+            this.validationReport = validationReport;
+            this.error = error;
+        }
+
+        public boolean isValid() {
+            return hierarchy != null;
+        }
+
+        public EmployeeHierarchy getHierarchy() {
+            return hierarchy;
+        }
+
+        public ValidationReport getValidationReport() {
+            return validationReport;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+}
@@ -0,0 +1,305 @@
+package com.momenton.service;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.util.EmployeeHierarchyFormatter.DisplayType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Keeps the hierarchies built for recently submitted employee lists, keyed by the content of the list,
+ *  along with their rendered outputs once they are requested. Only forms that can't be modified are kept:
+ *  the Employee/Manager objects of a hierarchy are mutable, so every request creates its own
+ *  with CompactHierarchy.toEmployeeHierarchy() instead of sharing them through the cache.
+ *
+ * Entries are evicted in least recently used order once either the entry count or the byte budget is exceeded.
+ *  Hierarchies handed out cursors for (see pin(...)) are evicted after all other entries, so the churn of
+ *  ordinary requests doesn't expire cursors; only the hierarchy.cache.max-paged-entries most recently paged
+ *  hierarchies are kept that way.
+ *  Cached hierarchies are shared between requests, so they must not be modified.
+ */
+@Component
+public class HierarchyCache {
+
+    @Value("${hierarchy.cache.max-entries:64}")
+    private int maxEntries = 64;
+
+    @Value("${hierarchy.cache.max-bytes:268435456}")
+    private long maxBytes = 256L * 1024 * 1024;
+
+    @Value("${hierarchy.cache.max-paged-entries:16}")
+    private int maxPagedEntries = 16;
+
+    // renderings of larger hierarchies (employees x depth) are streamed instead of cached
+    @Value("${hierarchy.cache.max-rendered-cells:1000000}")
+    private long maxRenderedCells = 1_000_000;
+
+    // access ordered, so iteration starts with the least recently used entry
+    private final LinkedHashMap<HierarchyKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    // CompactHierarchy doesn't override equals, so this map looks entries up by identity
+    private final Map<CompactHierarchy, Entry> entriesByHierarchy = new HashMap<>();
+    private long bytes;
+    private int pagedEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Looks the collected employees up, comparing them with the cached hierarchy instead of trusting
+     *  an equal key
+     *
+     * @param key key of the submitted employee list
+     * @param builder builder holding the submitted employees, with unique ids
+     *
+     * @return the hierarchy built for the same content before, or null if it's not cached
+     */
+    public CompactHierarchy get(HierarchyKey key, CompactHierarchy.Builder builder) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+        // compared outside the lock, cached hierarchies are never modified
+        if (entry == null || !builder.hasSameEmployees(entry.hierarchy)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.hierarchy;
+    }
+
+    /**
+     * @param key a key returned by pin(...), whose content was compared when it was pinned
+     *
+     * @return the hierarchy cached under the key, or null if it's not cached anymore
+     */
+    public synchronized CompactHierarchy get(HierarchyKey key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.hierarchy;
+    }
+
+    /**
+     * Caches the hierarchy unless an entry is cached under the same key already. That entry is kept,
+     *  so the cursors handed out for it stay valid, whether it has the same content or only the same key.
+     *
+     * @param key key of the submitted employee list
+     * @param hierarchy the hierarchy built for the list
+     */
+    public synchronized void put(HierarchyKey key, CompactHierarchy hierarchy) {
+        if (!entries.containsKey(key))
+            add(key, hierarchy);
+    }
+
+    /**
+     * Keeps the hierarchy in the cache for the cursors handed out for it, adding it unless it is cached already,
+     *  so it can be looked up by its key later on
+     *
+     * @param hierarchy a hierarchy returned by this cache, or any other hierarchy
+     *
+     * @return the key of the hierarchy, or null if it can't be cached: it is larger than the byte budget,
+     *  the cache keeps no (paged) entries, or another hierarchy is cached under the same key
+     */
+    public HierarchyKey pin(CompactHierarchy hierarchy) {
+        Entry entry = getEntry(hierarchy);
+        HierarchyKey key = entry != null ? entry.key : HierarchyKey.of(hierarchy);
+        Entry cached;
+        synchronized (this) {
+            cached = entries.get(key);
+        }
+        // another list with the same content may have been cached in the meantime, it is kept
+        if (cached != null && !cached.hierarchy.hasSameEmployees(hierarchy))
+            return null;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null)
+                entry = add(key, hierarchy);
+            else if (entry != cached && entry.hierarchy != hierarchy)
+                return null; // replaced since it was compared
+            if (entry == null)
+                return null;
+            if (!entry.paged) {
+                entry.paged = true;
+                pagedEntries++;
+                evict();
+            }
+            return entriesByHierarchy.get(entry.hierarchy) == entry ? key : null;
+        }
+    }
+
+    /**
+     * @param hierarchy a hierarchy returned by this cache, or any other hierarchy
+     *
+     * @return the key the hierarchy is cached under, or null if it isn't cached. The key is never computed.
+     */
+    public HierarchyKey getCachedKey(CompactHierarchy hierarchy) {
+        Entry entry = getEntry(hierarchy);
+        return entry == null ? null : entry.key;
+    }
+
+    /**
+     * @param hierarchy a hierarchy returned by this cache, or any other hierarchy
+     * @param displayType the requested display type
+     *
+     * @return the rendered hierarchy, or null if the hierarchy isn't cached or is too large to keep rendered
+     */
+    public String getRendering(CompactHierarchy hierarchy, DisplayType displayType) {
+        Entry entry = getEntry(hierarchy);
+        if (entry == null || (long) hierarchy.getSize() * hierarchy.getDepth() > maxRenderedCells)
+            return null;
+        synchronized (this) {
+            String rendering = entry.renderings.get(displayType);
+            if (rendering != null)
+                return rendering;
+        }
+        // rendered outside the lock, two requests for the same rendering may both render it but only one is kept
+        String rendering = displayType.getRenderer().render(hierarchy);
+        synchronized (this) {
+            String previous = entry.renderings.putIfAbsent(displayType, rendering);
+            if (previous != null)
+                return previous;
+            addToEntry(entry, 2L * rendering.length());
+            return rendering;
+        }
+    }
+
+    public synchronized Statistics getStatistics() {
+        return new Statistics(hits.get(), misses.get(), evictions.get(), entries.size(), bytes);
+    }
+
+    private synchronized Entry getEntry(CompactHierarchy hierarchy) {
+        return entriesByHierarchy.get(hierarchy);
+    }
+
+    private synchronized void addToEntry(Entry entry, long addedBytes) {
+        // the entry might have been evicted while its content was being created
+        if (entriesByHierarchy.get(entry.hierarchy) != entry)
+            return;
+        entry.bytes += addedBytes;
+        bytes += addedBytes;
+        evict();
+    }
+
+    // must hold the lock, returns the added entry or null if it was evicted right away
+    private Entry add(HierarchyKey key, CompactHierarchy hierarchy) {
+        Entry entry = new Entry(key, hierarchy, hierarchy.getEstimatedBytes());
+        if (entry.bytes > maxBytes)
+            return null; // would evict everything else and still not fit
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            remove(previous);
+        entriesByHierarchy.put(hierarchy, entry);
+        bytes += entry.bytes;
+        evict();
+        return entriesByHierarchy.get(hierarchy) == entry ? entry : null;
+    }
+
+    // must hold the lock
+    private void evict() {
+        // the least recently paged hierarchies beyond their own limit, then the other entries,
+        // and paged hierarchies only once no other entry is left
+        evict(true, () -> pagedEntries > maxPagedEntries);
+        evict(false, () -> entries.size() > maxEntries || bytes > maxBytes);
+        evict(true, () -> entries.size() > maxEntries || bytes > maxBytes);
+    }
+
+    // must hold the lock
+    private void evict(boolean paged, BooleanSupplier overLimit) {
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while (overLimit.getAsBoolean() && leastRecentlyUsed.hasNext()) {
+            Entry entry = leastRecentlyUsed.next();
+            if (entry.paged != paged)
+                continue;
+            leastRecentlyUsed.remove();
+            remove(entry);
+            evictions.incrementAndGet();
+        }
+    }
+
+    // must hold the lock
+    private void remove(Entry entry) {
+        entriesByHierarchy.remove(entry.hierarchy);
+        bytes -= entry.bytes;
+        if (entry.paged)
+            pagedEntries--;
+    }
+
+    private static class Entry {
+
+        private final HierarchyKey key;
+        private final CompactHierarchy hierarchy;
+        private final Map<DisplayType, String> renderings = new EnumMap<>(DisplayType.class);
+        private long bytes;
+        // cursors were handed out for the hierarchy
+        private boolean paged;
+
+        private Entry(HierarchyKey key, CompactHierarchy hierarchy, long bytes) {
+            this.key = key;
+            this.hierarchy = hierarchy;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * A snapshot of the cache counters
+     */
+    public static class Statistics {
+
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final int entries;
+        private final long bytes;
+
+        public Statistics(long hits, long misses, long evictions, int entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics{" +
+                    "hits=" + hits +
+                    ", misses=" + misses +
+                    ", evictions=" + evictions +
+                    ", entries=" + entries +
+                    ", bytes=" + bytes +
+                    '}';
+        }
+    }
+
+}
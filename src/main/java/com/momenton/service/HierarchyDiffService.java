@@ -0,0 +1,124 @@
+package com.momenton.service;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.Employee;
+import com.momenton.model.HierarchyDiff;
+import com.momenton.model.HierarchyDiff.Move;
+import com.momenton.model.HierarchyDiff.Rename;
+import com.momenton.service.HierarchyMetrics.Phase;
+import com.momenton.util.EmployeeJsonReader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares two hierarchies of the same organization, e.g. two uploads of an HR system, and lists
+ *  the employees who joined, left, were renamed or moved to another manager.
+ *
+ * Employees are matched by id through the id index of each compact hierarchy, so the comparison takes
+ *  time linear in the size of the hierarchies and no Employee/Manager trees are created. Only the changes
+ *  themselves become objects: a subtree moved as a unit is a single move of the employee at its top.
+ */
+@Service
+public class HierarchyDiffService {
+
+    private static final String BEFORE = "before";
+    private static final String AFTER = "after";
+
+    @Autowired
+    private EmployeeHierarchyService employeeHierarchyService;
+
+    @Autowired
+    private HierarchyMetrics hierarchyMetrics;
+
+    /**
+     * Reads the employee lists of two hierarchies from a JSON object, builds them and compares them
+     *
+     * @param hierarchiesJson stream holding a JSON object with the employee arrays of both hierarchies,
+     *                        e.g. {"before": [...], "after": [...]}
+     *
+     * @return changes turning the "before" hierarchy into the "after" hierarchy,
+     *  throws InvalidEmployeeListException if one of the lists is invalid
+     * @throws IOException if the stream can't be read or doesn't hold both employee arrays
+     */
+    public HierarchyDiff getDiff(InputStream hierarchiesJson) throws IOException {
+        CompactHierarchy before = null;
+        CompactHierarchy after = null;
+        try (JsonParser parser = EmployeeJsonReader.createParser(hierarchiesJson)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT)
+                throw new JsonParseException(parser, "Expected an object with the \"before\" and \"after\" employee lists");
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                if (BEFORE.equals(field) && before == null)
+                    before = employeeHierarchyService.getUncachedCompactHierarchy(parser);
+                else if (AFTER.equals(field) && after == null)
+                    after = employeeHierarchyService.getUncachedCompactHierarchy(parser);
+                else
+                    throw new JsonParseException(parser, "Unexpected or repeated field \"" + field + "\"");
+            }
+            if (before == null || after == null)
+                throw new JsonParseException(parser, "Expected both the \"before\" and \"after\" employee lists");
+        }
+        return getDiff(before, after);
+    }
+
+    /**
+     * @param before the earlier hierarchy, null for an organization that had no employees
+     * @param after the later hierarchy, null for an organization that has no employees anymore
+     *
+     * @return changes turning the earlier hierarchy into the later one: joined and moved employees
+     *  and renames in the pre-order of the later hierarchy, employees who left in the pre-order of the earlier one
+     */
+    public HierarchyDiff getDiff(CompactHierarchy before, CompactHierarchy after) {
+        long start = System.nanoTime();
+        List<Employee> joined = new ArrayList<>();
+        List<Employee> left = new ArrayList<>();
+        List<Rename> renamed = new ArrayList<>();
+        List<Move> moved = new ArrayList<>();
+
+        int afterSize = after == null ? 0 : after.getSize();
+        for (int position = 0; position < afterSize; position++) {
+            int employeeId = after.getEmployeeId(position);
+            int previousPosition = before == null ? CompactHierarchy.NO_POSITION : before.getPosition(employeeId);
+            if (previousPosition == CompactHierarchy.NO_POSITION) {
+                joined.add(getEmployee(after, position));
+                continue;
+            }
+            String name = after.getName(position);
+            String previousName = before.getName(previousPosition);
+            if (!name.equals(previousName))
+                renamed.add(new Rename(employeeId, previousName, name));
+            int managerId = after.getManagerId(position);
+            int previousManagerId = before.getManagerId(previousPosition);
+            if (managerId != previousManagerId)
+                moved.add(new Move(employeeId, toManagerId(previousManagerId), toManagerId(managerId),
+                        after.getSubtreeSize(position)));
+        }
+
+        int beforeSize = before == null ? 0 : before.getSize();
+        for (int position = 0; position < beforeSize; position++) {
+            if (after == null || after.getPosition(before.getEmployeeId(position)) == CompactHierarchy.NO_POSITION)
+                left.add(getEmployee(before, position));
+        }
+
+        hierarchyMetrics.record(Phase.DIFF, start);
+        return new HierarchyDiff(joined, left, renamed, moved);
+    }
+
+    private static Employee getEmployee(CompactHierarchy hierarchy, int position) {
+        return new Employee(hierarchy.getName(position), hierarchy.getEmployeeId(position),
+                toManagerId(hierarchy.getManagerId(position)));
+    }
+
+    private static Integer toManagerId(int managerId) {
+        return managerId == CompactHierarchy.NO_MANAGER ? null : managerId;
+    }
+
+}
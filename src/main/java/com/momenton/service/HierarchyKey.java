@@ -0,0 +1,148 @@
+package com.momenton.service;
+
+import com.momenton.model.CompactHierarchy;
+
+/**
+ * Identifies the content of a submitted employee list regardless of the order of the employees.
+ *
+ * Every (employeeId, managerId, name) tuple is hashed into two independent 64 bit values and the values
+ *  of all tuples are summed, so any permutation of the same employees gives the same key, while
+ *  a change to any field of any employee gives a different one.
+ *
+ * The sums are not a cryptographic digest, so lists crafted to collide could share a key: HierarchyCache
+ *  compares the employees of a cached hierarchy with the submitted ones before reusing it.
+ */
+public final class HierarchyKey {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long firstHash;
+    private final long secondHash;
+    private final int size;
+
+    private HierarchyKey(long firstHash, long secondHash, int size) {
+        this.firstHash = firstHash;
+        this.secondHash = secondHash;
+        this.size = size;
+    }
+
+    /**
+     * Computes the key of the employees collected by the given builder
+     *
+     * @param builder builder holding the submitted employees
+     *
+     * @return the key of the submitted content
+     */
+    public static HierarchyKey of(CompactHierarchy.Builder builder) {
+        // hash each distinct name once
+        long[] nameHashes = new long[builder.getNameCount()];
+        for (int nameIndex = 0; nameIndex < nameHashes.length; nameIndex++) {
+            nameHashes[nameIndex] = hash(builder.getName(nameIndex));
+        }
+
+        long firstHash = 0;
+        long secondHash = 0;
+        for (int row = 0; row < builder.size(); row++) {
+            long ids = ids(builder.getEmployeeId(row), builder.getManagerId(row));
+            long name = nameHashes[builder.getNameIndex(row)];
+            firstHash += firstTerm(ids, name);
+            secondHash += secondTerm(ids, name);
+        }
+        return new HierarchyKey(firstHash, secondHash, builder.size());
+    }
+
+    /**
+     * Computes the key of the employees of a built hierarchy, which is the same as the key of the list
+     *  it was built from
+     *
+     * @param hierarchy the built hierarchy
+     *
+     * @return the key of the hierarchy's content
+     */
+    public static HierarchyKey of(CompactHierarchy hierarchy) {
+        long firstHash = 0;
+        long secondHash = 0;
+        for (int position = 0; position < hierarchy.getSize(); position++) {
+            long ids = ids(hierarchy.getEmployeeId(position), hierarchy.getManagerId(position));
+            long name = hash(hierarchy.getName(position));
+            firstHash += firstTerm(ids, name);
+            secondHash += secondTerm(ids, name);
+        }
+        return new HierarchyKey(firstHash, secondHash, hierarchy.getSize());
+    }
+
+    /**
+     * Reads a key written by toString()
+     *
+     * @param key the text of a key
+     *
+     * @return the key
+     * @throws IllegalArgumentException if the text is not a key
+     */
+    public static HierarchyKey parse(String key) {
+        int separator = key.indexOf('-');
+        if (separator != 32)
+            throw new IllegalArgumentException("Not a hierarchy key: " + key);
+        try {
+            return new HierarchyKey(Long.parseUnsignedLong(key.substring(0, 16), 16),
+                    Long.parseUnsignedLong(key.substring(16, 32), 16), Integer.parseInt(key.substring(33)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a hierarchy key: " + key, e);
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    // FNV-1a over the chars of the name, null names hash differently from empty ones
+    private static long hash(String name) {
+        if (name == null)
+            return FNV_PRIME;
+        long hash = FNV_OFFSET;
+        for (int index = 0; index < name.length(); index++) {
+            hash = (hash ^ name.charAt(index)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    private static long ids(int employeeId, int managerId) {
+        return ((long) employeeId << 32) | (managerId & 0xffffffffL);
+    }
+
+    private static long firstTerm(long ids, long name) {
+        return mix(ids ^ name);
+    }
+
+    private static long secondTerm(long ids, long name) {
+        return mix(ids * 0x9E3779B97F4A7C15L + Long.rotateLeft(name, 29) + 0x632BE59BD9B4E019L);
+    }
+
+    // finalizer of SplitMix64, spreads every input bit over the whole value
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        HierarchyKey that = (HierarchyKey) o;
+
+        return firstHash == that.firstHash && secondHash == that.secondHash && size == that.size;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(firstHash);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%016x%016x-%d", firstHash, secondHash, size);
+    }
+}
@@ -0,0 +1,97 @@
+package com.momenton.service;
+
+import com.codahale.metrics.MetricRegistry;
+import com.momenton.model.CompactHierarchy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long every phase of a hierarchy request takes, along with the shape of the hierarchies
+ *  and the size of the responses. The timers and histograms are kept in the application's metric registry,
+ *  so they are listed by the actuator metrics endpoint (hierarchy.phase.*, hierarchy.*).
+ *
+ * Services created outside of Spring record into a registry of their own, which is never exported.
+ */
+@Component
+public class HierarchyMetrics {
+
+    /**
+     * The timed phases of a request
+     */
+    public enum Phase {
+        // waiting for a worker of the request executor
+        QUEUE,
+        // reading the JSON request body, validating and indexing each employee as it is read
+        READ,
+        // checking the rules that need the whole list
+        VALIDATE,
+        // arranging the employees into a hierarchy
+        BUILD,
+        // creating the Employee/Manager objects of the hierarchy
+        OBJECTS,
+        // comparing two hierarchies of an organization
+        DIFF,
+        // writing the hierarchy as a table
+        RENDER,
+        // writing the hierarchy objects as JSON
+        SERIALIZE,
+        // logging a sampled hierarchy as a whole, on the background logging thread
+        LOG;
+
+        private final String metricName = "hierarchy.phase." + name().toLowerCase(Locale.ROOT);
+    }
+
+    @Autowired(required = false)
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    /**
+     * @param phase the finished phase
+     * @param startNanos System.nanoTime() at the start of the phase
+     */
+    public void record(Phase phase, long startNanos) {
+        metricRegistry.timer(phase.metricName).update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param hierarchy a hierarchy returned by a web service
+     */
+    public void recordHierarchy(CompactHierarchy hierarchy) {
+        metricRegistry.histogram("hierarchy.employees").update(hierarchy.getSize());
+        metricRegistry.histogram("hierarchy.depth").update(hierarchy.getDepth());
+        metricRegistry.histogram("hierarchy.max-fan-out").update(hierarchy.getMaxSubordinateCount());
+    }
+
+    /**
+     * @param bytes size of a response body
+     */
+    public void recordOutputBytes(long bytes) {
+        metricRegistry.histogram("hierarchy.output-bytes").update(bytes);
+    }
+
+    /**
+     * Counts a request summary that was dropped because the logging queue was full
+     */
+    public void recordDroppedLogEntry() {
+        metricRegistry.counter("hierarchy.log.dropped").inc();
+    }
+
+    /**
+     * Counts a request that was turned away because the queue of its size was full
+     *
+     * @param large true if the request went to the queue of large requests
+     */
+    public void recordRejectedRequest(boolean large) {
+        metricRegistry.counter(large ? "hierarchy.requests.rejected.large" : "hierarchy.requests.rejected.small").inc();
+    }
+
+    /**
+     * Counts a request that was cancelled because it didn't finish before its deadline
+     */
+    public void recordTimedOutRequest() {
+        metricRegistry.counter("hierarchy.requests.timed-out").inc();
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.momenton.service;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.HierarchyNode;
+import com.momenton.model.HierarchyPage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Returns the top levels of a hierarchy, or a page of one manager's subordinates, instead of the whole tree.
+ *
+ * A manager whose subordinates are not all returned gets a cursor. The cursor names the hierarchy by
+ *  its key in the HierarchyCache, the manager by id and the index of the first subordinate that is
+ *  left out, so the next page is read straight from the cached hierarchy without the list being sent again.
+ *  Cursors stay valid as long as the hierarchy is cached: paged hierarchies are kept after the other entries
+ *  of the cache, and a hierarchy that can't be cached at all is refused instead of getting cursors that
+ *  could never be followed.
+ */
+@Component
+public class HierarchyPager {
+
+    public static final int MAX_PAGE_SIZE = 1000;
+    // nodes are expanded recursively, deeper expansions have to follow cursors
+    public static final int MAX_LEVELS = 100;
+
+    private static final char SEPARATOR = '.';
+
+    @Autowired
+    private HierarchyCache hierarchyCache;
+
+    /**
+     * @param hierarchy the built hierarchy, kept in the cache so its cursors can be followed
+     * @param levels number of levels to return, 1 for the CEO only
+     * @param pageSize largest number of subordinates returned per manager
+     *
+     * @return the CEO with their subordinates expanded down to the given number of levels
+     * @throws InvalidPageRequestException if the levels or the page size are out of range
+     * @throws UncachedHierarchyException if the hierarchy can't be cached, so its cursors couldn't be followed
+     */
+    public HierarchyNode getTopLevels(CompactHierarchy hierarchy, int levels, int pageSize) {
+        checkLimits(levels, pageSize);
+        HierarchyKey key = hierarchyCache.pin(hierarchy);
+        if (key == null)
+            throw new UncachedHierarchyException("The hierarchy can't be kept in the cache for its cursors, "
+                    + "request it without levels or raise hierarchy.cache.max-bytes");
+        return getNode(key, hierarchy, 0, levels, pageSize);
+    }
+
+    /**
+     * @param cursor cursor of a manager from an earlier response
+     * @param levels number of levels to return, 1 for the subordinates only
+     * @param pageSize largest number of subordinates returned per manager
+     *
+     * @return the next subordinates of the manager, each expanded down to the given number of levels
+     * @throws UnknownCursorException if the cursor is malformed, or its hierarchy is no longer cached
+     * @throws InvalidPageRequestException if the levels or the page size are out of range
+     */
+    public HierarchyPage getPage(String cursor, int levels, int pageSize) {
+        checkLimits(levels, pageSize);
+        String[] parts;
+        HierarchyKey key;
+        int employeeId;
+        int offset;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\\.");
+            if (parts.length != 3)
+                throw new IllegalArgumentException("Expected 3 parts but found " + parts.length);
+            key = HierarchyKey.parse(parts[0]);
+            employeeId = Integer.parseInt(parts[1]);
+            offset = Integer.parseInt(parts[2]);
+        } catch (IllegalArgumentException e) {
+            throw new UnknownCursorException("Malformed cursor: " + cursor);
+        }
+        CompactHierarchy hierarchy = hierarchyCache.get(key);
+        if (hierarchy == null)
+            throw new UnknownCursorException("The hierarchy of the cursor is no longer cached, submit the list again");
+        int position = hierarchy.getPosition(employeeId);
+        if (position == CompactHierarchy.NO_POSITION || offset < 0 || offset > hierarchy.getSubordinateCount(position))
+            throw new UnknownCursorException("Malformed cursor: " + cursor);
+        return getSubordinates(key, hierarchy, position, offset, levels, pageSize);
+    }
+
+    private static HierarchyNode getNode(HierarchyKey key, CompactHierarchy hierarchy, int position,
+                                         int levels, int pageSize) {
+        HierarchyNode node = new HierarchyNode(hierarchy.getName(position), hierarchy.getEmployeeId(position),
+                hierarchy.getLevel(position), hierarchy.getSubordinateCount(position),
+                hierarchy.getSubtreeSize(position) - 1);
+        if (node.getSubordinateCount() == 0)
+            return node;
+        if (levels > 1) {
+            HierarchyPage page = getSubordinates(key, hierarchy, position, 0, levels - 1, pageSize);
+            node.setSubordinates(page.getSubordinates());
+            node.setCursor(page.getCursor());
+        } else {
+            node.setCursor(cursor(key, node.getEmployeeId(), 0));
+        }
+        return node;
+    }
+
+    private static HierarchyPage getSubordinates(HierarchyKey key, CompactHierarchy hierarchy, int position,
+                                                 int offset, int levels, int pageSize) {
+        int count = hierarchy.getSubordinateCount(position);
+        int end = (int) Math.min(count, (long) offset + pageSize);
+        List<HierarchyNode> subordinates = new ArrayList<>(end - offset);
+        for (int index = offset; index < end; index++) {
+            subordinates.add(getNode(key, hierarchy, hierarchy.getSubordinate(position, index), levels, pageSize));
+        }
+        String cursor = end < count ? cursor(key, hierarchy.getEmployeeId(position), end) : null;
+        return new HierarchyPage(subordinates, cursor);
+    }
+
+    // the parts are encoded so clients treat the cursor as a whole rather than building their own
+    private static String cursor(HierarchyKey key, int employeeId, int offset) {
+        String cursor = key.toString() + SEPARATOR + employeeId + SEPARATOR + offset;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void checkLimits(int levels, int pageSize) {
+        if (levels < 1 || levels > MAX_LEVELS)
+            throw new InvalidPageRequestException("The levels must be between 1 and " + MAX_LEVELS + ", not " + levels);
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE)
+            throw new InvalidPageRequestException("The page size must be between 1 and " + MAX_PAGE_SIZE + ", not " + pageSize);
+    }
+
+}
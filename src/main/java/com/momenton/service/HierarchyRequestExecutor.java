@@ -0,0 +1,192 @@
+package com.momenton.service;
+
+import com.momenton.service.HierarchyMetrics.Phase;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the work of hierarchy requests off the servlet container's request threads.
+ *
+ * Requests are admitted by their estimated cost, the size of the request body: bodies smaller than
+ *  hierarchy.executor.large-request-bytes go to the pool of small requests, larger ones and those of
+ *  unknown size to a separate, smaller pool of large requests. A few huge organizations can then only
+ *  occupy the large pool, and small organizations keep being answered at their usual latency.
+ *  Each pool has a bounded queue, a request that doesn't fit in it is rejected right away
+ *  (RequestRejectedException) rather than waiting for a worker indefinitely.
+ *
+ * Every request has a deadline (hierarchy.executor.deadline-ms), counted from its admission. A request
+ *  still queued or running at its deadline gets a RequestTimeoutException as its result, and its worker
+ *  is interrupted. Work that must not be torn, like persisting a change, is submitted as the commit of
+ *  a request: it only starts if the deadline hasn't passed, and once it has started it is never interrupted
+ *  and its result is kept, however late.
+ */
+@Component
+public class HierarchyRequestExecutor {
+
+    private static final int RUNNING = 0;
+    private static final int COMMITTING = 1;
+    private static final int TIMED_OUT = 2;
+
+    // the servlet container's timeout is left later than the deadline, so the deadline always comes first
+    private static final long CONTAINER_TIMEOUT_MARGIN_MILLIS = 5000;
+
+    // request bodies of at least this size go to the pool of large requests
+    @Value("${hierarchy.executor.large-request-bytes:1048576}")
+    private long largeRequestBytes = 1024 * 1024;
+
+    // workers of small requests, 0 for one per available processor
+    @Value("${hierarchy.executor.small-threads:0}")
+    private int smallThreads;
+
+    @Value("${hierarchy.executor.small-queue-capacity:256}")
+    private int smallQueueCapacity = 256;
+
+    @Value("${hierarchy.executor.large-threads:1}")
+    private int largeThreads = 1;
+
+    @Value("${hierarchy.executor.large-queue-capacity:4}")
+    private int largeQueueCapacity = 4;
+
+    private long deadlineMillis = 60000;
+
+    @Autowired
+    private HierarchyMetrics hierarchyMetrics;
+
+    private ThreadPoolExecutor smallRequests;
+    private ThreadPoolExecutor largeRequests;
+    private ScheduledThreadPoolExecutor deadlines;
+
+    /**
+     * @param deadlineMillis time a request may take from its admission until its result is set
+     */
+    @Value("${hierarchy.executor.deadline-ms:60000}")
+    public void setDeadlineMillis(long deadlineMillis) {
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        smallRequests = newPool("hierarchy-small-request",
+                smallThreads > 0 ? smallThreads : Runtime.getRuntime().availableProcessors(), smallQueueCapacity);
+        largeRequests = newPool("hierarchy-large-request", largeThreads, largeQueueCapacity);
+        deadlines = new ScheduledThreadPoolExecutor(1, daemonThreads("hierarchy-request-deadline"));
+        deadlines.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    public void stop() {
+        smallRequests.shutdownNow();
+        largeRequests.shutdownNow();
+        deadlines.shutdownNow();
+    }
+
+    /**
+     * Admits the work of a request and runs it on the pool matching the size of the request body
+     *
+     * @param contentLength size of the request body in bytes, null or negative if unknown
+     * @param work the work of the request, its exceptions become the error result of the request
+     *
+     * @return result of the work, set once it is done or when the deadline passes
+     * @throws RequestRejectedException if the queue of the pool is full
+     */
+    public <T> DeferredResult<T> submit(Long contentLength, Callable<T> work) {
+        return submit(contentLength, work, result -> result);
+    }
+
+    /**
+     * Admits the work of a request, like submit(contentLength, work), followed by a commit that is not
+     *  interrupted at the deadline once it has started
+     *
+     * @param contentLength size of the request body in bytes, null or negative if unknown
+     * @param work the interruptible work of the request, e.g. reading and building a hierarchy
+     * @param commit applied to the result of the work unless the deadline has passed by then
+     *
+     * @return result of the commit, set once it is done or when the deadline passes before it starts
+     * @throws RequestRejectedException if the queue of the pool is full
+     */
+    public <W, T> DeferredResult<T> submit(Long contentLength, Callable<W> work, Commit<W, T> commit) {
+        boolean large = contentLength == null || contentLength < 0 || contentLength >= largeRequestBytes;
+        ThreadPoolExecutor pool = large ? largeRequests : smallRequests;
+        long deadline = deadlineMillis;
+        DeferredResult<T> result = new DeferredResult<>(deadline + CONTAINER_TIMEOUT_MARGIN_MILLIS);
+        AtomicReference<ScheduledFuture<?>> deadlineTask = new AtomicReference<>();
+        AtomicInteger state = new AtomicInteger(RUNNING);
+        long admitted = System.nanoTime();
+
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            hierarchyMetrics.record(Phase.QUEUE, admitted);
+            try {
+                W done = work.call();
+                if (state.compareAndSet(RUNNING, COMMITTING))
+                    result.setResult(commit.apply(done));
+            } catch (Exception e) {
+                result.setErrorResult(e);
+            } finally {
+                ScheduledFuture<?> scheduled = deadlineTask.get();
+                if (scheduled != null)
+                    scheduled.cancel(false);
+            }
+        }, null);
+        try {
+            pool.execute(task);
+        } catch (RejectedExecutionException e) {
+            hierarchyMetrics.recordRejectedRequest(large);
+            throw new RequestRejectedException("Too many " + (large ? "large" : "small")
+                    + " requests waiting, try again later");
+        }
+
+        deadlineTask.set(deadlines.schedule(() -> {
+            // a commit in progress is left to finish and answer the request
+            if (state.compareAndSet(RUNNING, TIMED_OUT) && result.setErrorResult(new RequestTimeoutException("The request didn't finish within " + deadline + " ms"))) {
+                // stops a running build at its next read, and frees the queue of one still waiting
+                task.cancel(true);
+                pool.remove(task);
+                hierarchyMetrics.recordTimedOutRequest();
+            }
+        }, deadline, TimeUnit.MILLISECONDS));
+        return result;
+    }
+
+    /**
+     * The part of a request's work that must not be interrupted
+     *
+     * @param <W> result of the interruptible work
+     * @param <T> result of the request
+     */
+    @FunctionalInterface
+    public interface Commit<W, T> {
+
+        T apply(W work) throws Exception;
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int threads, int queueCapacity) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), daemonThreads(name));
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.momenton.service;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.util.EmployeeHierarchyFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Logs a one line summary of every hierarchy request (path, size, depth, largest fan-out, timings,
+ *  response size and the key of the employee list) from a background thread. The key is the one the hierarchy
+ *  is cached under, it is never computed for the log, so hierarchies that aren't cached are logged without one.
+ *
+ * Entries are handed over through a bounded queue; when the queue is full the entry is dropped
+ *  and counted, so a slow console never holds up a request.
+ *  The full text table of the hierarchy is only logged for a sample of the requests
+ *  (hierarchy.log.sample-rate), or for every request to a path whose tree logger has debug enabled,
+ *  e.g. logging.level.com.momenton.service.HierarchyRequestLog.getEmployeeHierarchy=DEBUG
+ */
+@Component
+public class HierarchyRequestLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HierarchyRequestLog.class);
+
+    @Value("${hierarchy.log.queue-capacity:1024}")
+    private int queueCapacity = 1024;
+
+    // fraction of the requests whose hierarchy is logged as a whole, between 0 and 1
+    @Value("${hierarchy.log.sample-rate:0}")
+    private double sampleRate;
+
+    @Autowired
+    private HierarchyMetrics hierarchyMetrics;
+
+    @Autowired
+    private HierarchyCache hierarchyCache;
+
+    private BlockingQueue<Entry> queue;
+    private Thread worker;
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        worker = new Thread(this::drain, "hierarchy-request-log");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        worker.interrupt();
+        worker.join(TimeUnit.SECONDS.toMillis(1));
+    }
+
+    /**
+     * Queues the summary of a finished request, never blocks
+     *
+     * @param path path of the web service
+     * @param hierarchy the hierarchy of the request
+     * @param buildNanos time spent reading the request and building the hierarchy
+     * @param writeNanos time spent writing the response
+     * @param outputBytes size of the response body
+     */
+    public void log(String path, CompactHierarchy hierarchy, long buildNanos, long writeNanos, long outputBytes) {
+        Logger treeLogger = LoggerFactory.getLogger(HierarchyRequestLog.class.getName() + path.replace('/', '.'));
+        boolean logTree = treeLogger.isDebugEnabled() || ThreadLocalRandom.current().nextDouble() < sampleRate;
+        String summary = String.format("%s employees=%d depth=%d maxFanOut=%d buildMs=%.3f writeMs=%.3f bytes=%d key=%s",
+                path, hierarchy.getSize(), hierarchy.getDepth(), hierarchy.getMaxSubordinateCount(),
+                buildNanos / 1e6, writeNanos / 1e6, outputBytes, hierarchyCache.getCachedKey(hierarchy));
+        // only sampled entries keep the hierarchy, so a full queue doesn't hold on to many of them
+        if (!queue.offer(new Entry(summary, logTree ? hierarchy : null, treeLogger)))
+            hierarchyMetrics.recordDroppedLogEntry();
+    }
+
+    private void drain() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Entry entry = queue.take();
+                LOGGER.info(entry.summary);
+                if (entry.hierarchy != null) {
+                    long start = System.nanoTime();
+                    String tree = EmployeeHierarchyFormatter.getTextRepresentation(entry.hierarchy);
+                    entry.treeLogger.info("{}{}", System.lineSeparator(), tree);
+                    hierarchyMetrics.record(HierarchyMetrics.Phase.LOG, start);
+                }
+            }
+        } catch (InterruptedException e) {
+            // stopped with the application
+        }
+    }
+
+    private static class Entry {
+
+        private final String summary;
+        private final CompactHierarchy hierarchy;
+        private final Logger treeLogger;
+
+        private Entry(String summary, CompactHierarchy hierarchy, Logger treeLogger) {
+            this.summary = summary;
+            this.hierarchy = hierarchy;
+            this.treeLogger = treeLogger;
+        }
+    }
+
+}
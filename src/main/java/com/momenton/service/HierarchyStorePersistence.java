@@ -0,0 +1,414 @@
+package com.momenton.service;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.Employee;
+import com.momenton.model.HierarchySnapshot;
+import com.momenton.service.ChangeJournal.Change;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the hierarchy of the HierarchyStore on disk, so it survives restarts and crashes.
+ *
+ * A whole stored hierarchy is saved to a snapshot file, and every single employee change made after it
+ *  is appended to a change journal. Files come in generations: the snapshot of a generation holds the state
+ *  before the changes in the journal of the same generation. On startup the latest snapshot is loaded and
+ *  the journals from its generation on are replayed on top of it.
+ *
+ * Once the journal grows beyond hierarchy.store.journal-max-bytes, a new generation is started and the
+ *  current state is saved as its snapshot in the background, after which the older files are deleted.
+ *
+ * A change is made to the store before its journal is forced. If the write or the force fails, the journal
+ *  can't be trusted anymore, so the whole current state, which includes the change, is saved as the snapshot
+ *  of a new generation and the change succeeds once that is done. If that snapshot can't be written either,
+ *  the change fails but stays in the store, and the next change tries again to save a new generation first.
+ *
+ * Disabled unless hierarchy.store.directory is set, changes then only go to the store.
+ */
+@Component
+public class HierarchyStorePersistence {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HierarchyStorePersistence.class);
+    private static final Pattern FILE_NAME = Pattern.compile("hierarchy-(\\d+)\\.(snapshot|journal)");
+
+    // directory of the snapshot and journal files, nothing is saved if empty
+    @Value("${hierarchy.store.directory:}")
+    private String directory = "";
+
+    private long journalMaxBytes = 64L * 1024 * 1024;
+
+    @Autowired
+    private HierarchyStore hierarchyStore;
+
+    private Path storeDirectory;
+    private long generation;
+    // latest generation whose snapshot is written, -1 if there is none
+    private long savedGeneration;
+    private ChangeJournal journal;
+    private ChangeJournal.ChannelOpener channelOpener = ChangeJournal.FILE_CHANNELS;
+    private ExecutorService compactor;
+    private boolean compacting;
+    // held while snapshots are written and old files deleted
+    private final Object filesLock = new Object();
+
+    /**
+     * @param journalMaxBytes journal size that starts a compaction into a new snapshot
+     */
+    @Value("${hierarchy.store.journal-max-bytes:67108864}")
+    public void setJournalMaxBytes(long journalMaxBytes) {
+        this.journalMaxBytes = journalMaxBytes;
+    }
+
+    // for tests, to make the writes of the journals fail
+    void setChannelOpener(ChangeJournal.ChannelOpener channelOpener) {
+        this.channelOpener = channelOpener;
+    }
+
+    @PostConstruct
+    public void restore() throws IOException {
+        if (!directory.isEmpty())
+            open(Paths.get(directory));
+    }
+
+    /**
+     * Loads the last saved state into the store, and saves every change to the given directory from now on
+     *
+     * @param directory directory of the snapshot and journal files, created if it doesn't exist
+     *
+     * @throws IOException if the files exist but can't be read
+     */
+    public synchronized void open(Path directory) throws IOException {
+        if (journal != null)
+            throw new IllegalStateException("Already saving to " + storeDirectory);
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        TreeSet<Long> snapshots = new TreeSet<>();
+        TreeSet<Long> journals = new TreeSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "hierarchy-*")) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches())
+                    (matcher.group(2).equals("snapshot") ? snapshots : journals).add(Long.valueOf(matcher.group(1)));
+            }
+        }
+
+        generation = snapshots.isEmpty() ? 0 : snapshots.last();
+        savedGeneration = snapshots.isEmpty() ? -1 : snapshots.last();
+        if (!snapshots.isEmpty())
+            hierarchyStore.load(HierarchySnapshot.read(snapshotFile(directory, generation)));
+        else
+            hierarchyStore.clear();
+        // the journals of the snapshot's generation and of later ones, whose snapshots weren't completed
+        long changes = 0;
+        for (long journalGeneration : journals.tailSet(generation)) {
+            if (journal != null)
+                journal.close();
+            journal = ChangeJournal.open(journalFile(directory, journalGeneration), this::replay, channelOpener);
+            generation = journalGeneration;
+            changes++;
+        }
+        if (journal == null)
+            journal = ChangeJournal.open(journalFile(directory, generation), this::replay, channelOpener);
+        storeDirectory = directory;
+        compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hierarchy-store-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        deleteBefore(snapshots.isEmpty() ? 0 : snapshots.last());
+        LOGGER.info("Loaded {} employees from {} (generation {}, {} journals) in {} ms", hierarchyStore.getSize(),
+                directory, generation, changes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Writes the pending changes and stops saving, waiting for a running compaction to finish
+     *
+     * @throws IOException if the pending changes can't be written
+     */
+    @PreDestroy
+    public void close() throws IOException {
+        ChangeJournal closing;
+        ExecutorService runningCompactor;
+        synchronized (this) {
+            if (journal == null)
+                return;
+            closing = journal;
+            journal = null;
+            runningCompactor = compactor;
+        }
+        try {
+            closing.close();
+        } finally {
+            runningCompactor.shutdown();
+            try {
+                runningCompactor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Saves the hierarchy as the snapshot of a new generation and then replaces the stored hierarchy with it,
+     *  so the store never holds a hierarchy that would be lost on restart
+     *
+     * @param hierarchy a hierarchy built from a valid employee list
+     *
+     * @throws IOException if the snapshot can't be written, the store is left unchanged
+     */
+    public synchronized void store(CompactHierarchy hierarchy) throws IOException {
+        if (journal == null) {
+            hierarchyStore.load(hierarchy);
+            return;
+        }
+        saveGeneration(hierarchy);
+        hierarchyStore.load(hierarchy);
+    }
+
+    /**
+     * Same as HierarchyStore.add(...), returns once the change is saved
+     */
+    public Employee add(String name, Integer employeeId, Integer managerId) throws IOException {
+        AppendedChange change;
+        Employee employee;
+        synchronized (this) {
+            hierarchyStore.checkAdd(name, employeeId, managerId);
+            change = append(Change.ADD, employeeId, managerId, name);
+            employee = hierarchyStore.add(name, employeeId, managerId);
+        }
+        return saved(change, employee);
+    }
+
+    /**
+     * Same as HierarchyStore.remove(...), returns once the change is saved
+     */
+    public Employee remove(Integer employeeId) throws IOException {
+        AppendedChange change;
+        Employee employee;
+        synchronized (this) {
+            hierarchyStore.checkRemove(employeeId);
+            change = append(Change.REMOVE, employeeId, null, null);
+            employee = hierarchyStore.remove(employeeId);
+        }
+        return saved(change, employee);
+    }
+
+    /**
+     * Same as HierarchyStore.rename(...), returns once the change is saved
+     */
+    public Employee rename(Integer employeeId, String name) throws IOException {
+        AppendedChange change;
+        Employee employee;
+        synchronized (this) {
+            hierarchyStore.checkRename(employeeId, name);
+            change = append(Change.RENAME, employeeId, null, name);
+            employee = hierarchyStore.rename(employeeId, name);
+        }
+        return saved(change, employee);
+    }
+
+    /**
+     * Same as HierarchyStore.move(...), returns once the change is saved
+     */
+    public Employee move(Integer employeeId, Integer managerId) throws IOException {
+        AppendedChange change;
+        Employee employee;
+        synchronized (this) {
+            hierarchyStore.checkMove(employeeId, managerId);
+            change = append(Change.MOVE, employeeId, managerId, null);
+            employee = hierarchyStore.move(employeeId, managerId);
+        }
+        return saved(change, employee);
+    }
+
+    // must hold the lock, so the journal has the changes in the order they are made to the store.
+    //  Changes are checked before and made to the store after being appended, so a change that can't be
+    //  appended leaves the store as it was.
+    private AppendedChange append(Change change, int employeeId, Integer managerId, String name) throws IOException {
+        if (journal == null)
+            return null;
+        if (journal.hasFailed())
+            recover(generation);
+        long sequence = journal.append(change, employeeId, managerId, name);
+        if (journal.size() > journalMaxBytes && !compacting) {
+            compacting = true;
+            compactor.execute(this::compact);
+        }
+        return new AppendedChange(journal, generation, sequence);
+    }
+
+    // waits outside the lock, so concurrent changes are written by the same group commit.
+    //  A journal closed by a new generation in the meantime has already written all its changes.
+    private Employee saved(AppendedChange change, Employee employee) throws IOException {
+        if (change == null)
+            return employee;
+        try {
+            change.journal.awaitDurable(change.sequence);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            synchronized (this) {
+                if (!recover(change.generation))
+                    throw e;
+            }
+        }
+        return employee;
+    }
+
+    // must hold the lock. Saves the current state, which includes every change appended to the failed
+    //  journal, as the snapshot of a new generation unless a later snapshot is already written.
+    //  Returns false if nothing is saved anymore.
+    private boolean recover(long failedGeneration) throws IOException {
+        if (savedGeneration > failedGeneration)
+            return true;
+        if (journal == null)
+            return false;
+        LOGGER.warn("Writing to the change journal of generation {} failed, saving a snapshot of the store instead",
+                failedGeneration);
+        saveGeneration(hierarchyStore.copyState().get());
+        return true;
+    }
+
+    private void replay(Change change, int employeeId, Integer managerId, String name) {
+        switch (change) {
+            case ADD:
+                hierarchyStore.add(name, employeeId, managerId);
+                break;
+            case REMOVE:
+                hierarchyStore.remove(employeeId);
+                break;
+            case RENAME:
+                hierarchyStore.rename(employeeId, name);
+                break;
+            case MOVE:
+                hierarchyStore.move(employeeId, managerId);
+                break;
+        }
+    }
+
+    // folds the journal into a snapshot of a new generation
+    private void compact() {
+        try {
+            Supplier<CompactHierarchy> state;
+            long nextGeneration;
+            synchronized (this) {
+                if (journal == null)
+                    return;
+                // the state after the last change of the current journal, built once changes can go on
+                state = hierarchyStore.copyState();
+                nextGeneration = generation + 1;
+                startGeneration(nextGeneration);
+            }
+            long start = System.nanoTime();
+            CompactHierarchy hierarchy = state.get();
+            synchronized (filesLock) {
+                HierarchySnapshot.write(hierarchy, snapshotFile(storeDirectory, nextGeneration));
+            }
+            synchronized (this) {
+                savedGeneration = Math.max(savedGeneration, nextGeneration);
+            }
+            deleteBefore(nextGeneration);
+            LOGGER.info("Compacted the change journal into a snapshot of {} employees in {} ms", hierarchy.getSize(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (IOException | RuntimeException e) {
+            // the journals are kept, so nothing is lost, the next change tries again
+            LOGGER.error("Compaction of the change journal failed", e);
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    // must hold the lock. Writes the hierarchy as the snapshot of a new generation and starts its journal,
+    //  the older files are deleted once both exist.
+    private void saveGeneration(CompactHierarchy hierarchy) throws IOException {
+        long nextGeneration = generation + 1;
+        Path snapshotFile = snapshotFile(storeDirectory, nextGeneration);
+        synchronized (filesLock) {
+            HierarchySnapshot.write(hierarchy, snapshotFile);
+        }
+        try {
+            startGeneration(nextGeneration);
+        } catch (IOException | RuntimeException e) {
+            // without its journal the snapshot would be loaded on restart
+            Files.deleteIfExists(snapshotFile);
+            throw e;
+        }
+        savedGeneration = nextGeneration;
+        try {
+            deleteBefore(nextGeneration);
+        } catch (IOException e) {
+            // only the latest snapshot is loaded, the older files are deleted on the next start
+            LOGGER.warn("Deleting the files before generation {} failed", nextGeneration, e);
+        }
+    }
+
+    // must hold the lock. The next journal is opened first, so if it can't be opened the current one is kept
+    //  in use; the changes of the current journal are written before anything is appended to the next one.
+    //  If they can't be, their callers get the error and recover from it.
+    private void startGeneration(long nextGeneration) throws IOException {
+        ChangeJournal previous = journal;
+        journal = ChangeJournal.open(journalFile(storeDirectory, nextGeneration), this::replay, channelOpener);
+        generation = nextGeneration;
+        try {
+            previous.close();
+        } catch (IOException e) {
+            LOGGER.warn("Closing the change journal of generation {} failed", nextGeneration - 1, e);
+        }
+    }
+
+    private void deleteBefore(long oldestKept) throws IOException {
+        synchronized (filesLock) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(storeDirectory, "hierarchy-*")) {
+                for (Path file : files) {
+                    Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                    if (matcher.matches() && Long.parseLong(matcher.group(1)) < oldestKept)
+                        Files.delete(file);
+                }
+            }
+        }
+    }
+
+    private static Path snapshotFile(Path directory, long generation) {
+        return directory.resolve(String.format("hierarchy-%019d.snapshot", generation));
+    }
+
+    private static Path journalFile(Path directory, long generation) {
+        return directory.resolve(String.format("hierarchy-%019d.journal", generation));
+    }
+
+    // a change appended to the journal of a generation, not necessarily written yet
+    private static class AppendedChange {
+
+        private final ChangeJournal journal;
+        private final long generation;
+        private final long sequence;
+
+        private AppendedChange(ChangeJournal journal, long generation, long sequence) {
+            this.journal = journal;
+            this.generation = generation;
+            this.sequence = sequence;
+        }
+    }
+
+}
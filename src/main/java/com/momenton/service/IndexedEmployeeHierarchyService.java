@@ -0,0 +1,96 @@
+package com.momenton.service;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.Employee;
+import com.momenton.model.EmployeeHierarchy;
+import com.momenton.model.ValidationReport;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Builds the hierarchy from a manager to subordinates index instead of searching the whole list
+ *  for the subordinates of every employee, so the cost grows linearly with the organization size
+ *  (plus a single sort by employee id). The index is kept as a CompactHierarchy, which the
+ *  Employee/Manager objects are created from.
+ *
+ * When a HierarchyCache is set, a list with the same content as a previous submission
+ *  reuses the hierarchy built for it instead of building it again.
+ *
+ * Lists of at least hierarchy.build.parallel-threshold employees are built by the common fork/join pool,
+ *  laying out large subtrees at the same time. Off (0) by default, every list is built on the request thread.
+ */
+@Service
+@Primary
+public class IndexedEmployeeHierarchyService extends MomentonEmployeeHierarchyService {
+
+    private HierarchyCache hierarchyCache;
+
+    @Value("${hierarchy.build.parallel-threshold:0}")
+    private int parallelThreshold;
+
+    @Autowired
+    public void setHierarchyCache(HierarchyCache hierarchyCache) {
+        this.hierarchyCache = hierarchyCache;
+    }
+
+    /**
+     * Checks if the provided list is valid and then rearrange the data into
+     *  a hierarchy representing the organization of the given employees
+     *
+     * @param allEmployees list of all employees in the organization
+     *
+     * @return Employee Hierarchy if the list is valid and throws a RuntimeException otherwise
+     */
+    @Override
+    public EmployeeHierarchy getEmployeeHierarchy(List<Employee> allEmployees) {
+        CompactHierarchy hierarchy = getCompactHierarchy(allEmployees);
+        long start = System.nanoTime();
+        // created for every request, the objects are mutable so they can't be shared through the cache
+        EmployeeHierarchy employeeHierarchy = hierarchy.toEmployeeHierarchy();
+        getHierarchyMetrics().record(HierarchyMetrics.Phase.OBJECTS, start);
+        return employeeHierarchy;
+    }
+
+    /**
+     * Looks the validated employees up in the cache before building their hierarchy
+     *
+     * @param report validation report of the collected employees
+     * @param builder builder holding all the employees in the organization
+     *
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     */
+    @Override
+    protected CompactHierarchy buildCompactHierarchy(ValidationReport report, CompactHierarchy.Builder builder) {
+        // only lists that passed validation are looked up, so an invalid list can never hit a valid entry
+        if (hierarchyCache == null || !report.isValid())
+            return super.buildCompactHierarchy(report, builder);
+
+        HierarchyKey key = HierarchyKey.of(builder);
+        CompactHierarchy hierarchy = hierarchyCache.get(key, builder);
+        if (hierarchy == null) {
+            hierarchy = super.buildCompactHierarchy(report, builder);
+            hierarchyCache.put(key, hierarchy);
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Builds large lists in parallel when enabled
+     *
+     * @param builder builder holding all the employees in the organization
+     *
+     * @return the employees arranged in pre-order, throws RuntimeException if some are not under the CEO
+     */
+    @Override
+    protected CompactHierarchy build(CompactHierarchy.Builder builder) {
+        if (parallelThreshold > 0 && builder.size() >= parallelThreshold)
+            return builder.build(ForkJoinPool.commonPool());
+        return builder.build();
+    }
+
+}
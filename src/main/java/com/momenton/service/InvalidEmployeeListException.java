@@ -0,0 +1,23 @@
+package com.momenton.service;
+
+import com.momenton.model.ValidationReport;
+
+import java.util.Objects;
+
+/**
+ * Thrown when an employee list breaks one or more of the validation rules.
+ *  Carries the full validation report so the caller can fix every bad row in one go.
+ */
+public class InvalidEmployeeListException extends IllegalArgumentException {
+
+    private final ValidationReport report;
+
+    public InvalidEmployeeListException(ValidationReport report) {
+        super("This Employee List is invalid. " + Objects.requireNonNull(report).getViolations());
+        this.report = report;
+    }
+
+    public ValidationReport getReport() {
+        return report;
+    }
+}
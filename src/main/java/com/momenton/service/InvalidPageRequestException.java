@@ -0,0 +1,11 @@
+package com.momenton.service;
+
+/**
+ * Thrown when the levels or the page size asked for part of a hierarchy are out of their range
+ */
+public class InvalidPageRequestException extends RuntimeException {
+
+    public InvalidPageRequestException(String message) {
+        super(message);
+    }
+}
@@ -1,18 +1,31 @@
 package com.momenton.service;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.momenton.model.CompactHierarchy;
 import com.momenton.model.Employee;
 import com.momenton.model.EmployeeHierarchy;
 import com.momenton.model.Manager;
+import com.momenton.model.ValidationReport;
+import com.momenton.service.HierarchyMetrics.Phase;
+import com.momenton.util.EmployeeBinaryFormat;
+import com.momenton.util.EmployeeJsonReader;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
 
 @Service
 public class MomentonEmployeeHierarchyService implements EmployeeHierarchyService {
 
+    // the size of a streamed list is not known up front, the tables grow as employees are read
+    private static final int STREAM_INITIAL_SIZE = 1024;
+
+    // replaced by the application's metrics when created by Spring
+    @Autowired
+    private HierarchyMetrics hierarchyMetrics = new HierarchyMetrics();
+
     /**
      * Checks if the provided list is valid and then rearrange the data into
      *  a hierarchy representing the organization of the given employees
@@ -22,18 +35,23 @@ public class MomentonEmployeeHierarchyService implements EmployeeHierarchyServic
      * @return Employee Hierarchy if the list is valid and throws a RuntimeException otherwise
      */
     public EmployeeHierarchy getEmployeeHierarchy(List<Employee> allEmployees) {
-        if (!isValidList(allEmployees))
-            throw new IllegalArgumentException("This Employee List is invalid.");
+        long start = System.nanoTime();
+        ValidationReport report = validate(allEmployees);
+        hierarchyMetrics.record(Phase.VALIDATE, start);
+        if (!report.isValid())
+            throw new InvalidEmployeeListException(report);
 
         //Get the CEO of the company
         //Didn't check optional.isPresent() because we already checked in
-        // isValidList(allEmployees) method which is called above
+        // validate(allEmployees) method which is called above
         Employee cEO = allEmployees.stream().filter(e -> e.getManagerId() == null).findFirst().get();
 
         Set<Employee> seenEmployees = new HashSet<>();
 
-        // a recursive method to go through all the employees and create a hierarchical representation
+        // go through all the employees and create a hierarchical representation
+        start = System.nanoTime();
         cEO = fillSubordinates(cEO, allEmployees, seenEmployees);
+        hierarchyMetrics.record(Phase.BUILD, start);
 
         // some employees are not covered in the hierarchy
         if(seenEmployees.size() != allEmployees.size())
@@ -43,134 +61,226 @@ public class MomentonEmployeeHierarchyService implements EmployeeHierarchyServic
     }
 
     /**
-     *  Checks for list validity:
-     *      -   Employee names are all valid values (no nulls and no empty strings)
-     *      -   Employee Ids are all unique positive integers
-     *      -   Exactly one employee with no manager (The CEO)
-     *      -   Manager Ids are all valid (all refer to valid employee ids and not the current employee)
+     * Checks if the provided list is valid and then arranges the data into a memory compact hierarchy
      *
-     * @param employees list of employees to validate
+     * @param allEmployees list of all employees in the organization
      *
-     * @return true if all conditions are met, false otherwise
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
      */
-    public boolean isValidList(List<Employee> employees) {
-        return isValidEmployeeNames(employees)
-                && isValidEmployeeIds(employees)
-                && isExactlyOneCEO(employees)
-                && isValidManagerIds(employees);
+    public CompactHierarchy getCompactHierarchy(List<Employee> allEmployees) {
+        long start = System.nanoTime();
+        ValidationReport report = validate(allEmployees);
+        hierarchyMetrics.record(Phase.VALIDATE, start);
+
+        CompactHierarchy.Builder builder = new CompactHierarchy.Builder(allEmployees.size());
+        for (Employee employee : allEmployees) {
+            builder.add(employee);
+        }
+        return buildCompactHierarchy(report, builder);
     }
 
     /**
-     * Checks that employee names are all valid values (no nulls and no empty strings)
+     * Reads the employees from a JSON stream, validating and indexing each employee as soon as it is read,
+     *  and then arranges them into a memory compact hierarchy. No Employee objects are created on the way.
      *
-     * @param employees list of employees to check
+     * @param employeesJson stream holding a JSON array of all employees in the organization
      *
-     * @return true if all names have valid values, false otherwise
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     * @throws IOException if the stream can't be read or doesn't hold an array of employees
      */
-    private boolean isValidEmployeeNames(List<Employee> employees) {
-        return employees.stream()
-                .filter(e -> e.getName() == null || e.getName().isEmpty())
-                .count()==0;
+    public CompactHierarchy getCompactHierarchy(InputStream employeesJson) throws IOException {
+        try (JsonParser parser = EmployeeJsonReader.createParser(employeesJson)) {
+            CompactHierarchy.Builder builder = new CompactHierarchy.Builder(STREAM_INITIAL_SIZE);
+            ValidationReport report = readEmployees(parser, builder);
+            return buildCompactHierarchy(report, builder);
+        }
     }
 
     /**
-     * Checks that employee Ids are all unique positive integers
+     * Same as getCompactHierarchy(InputStream), for an array that is part of a larger JSON document.
+     *  The hierarchy is neither looked up in nor added to a hierarchy cache, so bulk requests
+     *  don't evict the hierarchies of other requests.
      *
-     * @param employees list of employees to check
+     * @param employeesJson parser whose next token starts a JSON array of all employees in the organization
      *
-     * @return true if all ids have valid values, false otherwise
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     * @throws IOException if the parser can't be read or doesn't hold an array of employees
      */
-    private boolean isValidEmployeeIds(List<Employee> employees) {
-        //all employee Ids must be positive integer value
-        if (employees.stream().mapToInt(Employee::getEmployeeId)
-                .anyMatch(employeeId -> employeeId<=0))
-            // if any id is <= 0 then the list is not valid
-            return false;
-
-        //EmployeeId must be unique
-        long idCount = employees.stream()
-                .mapToInt(Employee::getEmployeeId)
-                .count();
-        long idDistinctCount = employees.stream()
-                    .mapToInt(Employee::getEmployeeId)
-                    .distinct().count();
-        // if both are equal then the ids are already unique
-        return idCount == idDistinctCount;
+    public CompactHierarchy getUncachedCompactHierarchy(JsonParser employeesJson) throws IOException {
+        CompactHierarchy.Builder builder = new CompactHierarchy.Builder(STREAM_INITIAL_SIZE);
+        ValidationReport report = readEmployees(employeesJson, builder);
+        return buildUncachedCompactHierarchy(report, builder);
     }
 
     /**
-     *  Checks if there is exactly one employee with no manager (The CEO)
+     * Reads the JSON array of employees at the next token of the parser, validating and indexing each employee
+     *  as soon as it is read
+     *
+     * @param employeesJson parser whose next token starts a JSON array of all employees in the organization
+     * @param builder receives every employee read
      *
-     * @param employees list of employees to check
+     * @return validation report of the employees read
+     * @throws IOException if the parser can't be read or doesn't hold an array of employees
+     */
+    private ValidationReport readEmployees(JsonParser employeesJson, CompactHierarchy.Builder builder)
+            throws IOException {
+        EmployeeListValidator validator = new EmployeeListValidator(STREAM_INITIAL_SIZE);
+        long start = System.nanoTime();
+        EmployeeJsonReader.read(employeesJson, (name, employeeId, managerId) -> {
+            validator.accept(name, employeeId, managerId);
+            builder.add(name, employeeId == null ? 0 : employeeId,
+                    managerId == null ? CompactHierarchy.NO_MANAGER : managerId);
+        });
+        hierarchyMetrics.record(Phase.READ, start);
+
+        start = System.nanoTime();
+        ValidationReport report = validator.getReport();
+        hierarchyMetrics.record(Phase.VALIDATE, start);
+        return report;
+    }
+
+    /**
+     * Reads the employees from a stream in the binary employee format, validating and indexing each employee
+     *  as soon as it is read, and then arranges them into a memory compact hierarchy.
+     *  Neither Employee objects nor boxed ids are created on the way.
+     *
+     * @param employeesBinary stream holding all employees in the organization, see EmployeeBinaryFormat
+     *
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     * @throws IOException if the stream can't be read or doesn't hold a binary employee list
+     */
+    public CompactHierarchy getCompactHierarchyFromBinary(InputStream employeesBinary) throws IOException {
+        EmployeeListValidator validator = new EmployeeListValidator(STREAM_INITIAL_SIZE);
+        CompactHierarchy.Builder builder = new CompactHierarchy.Builder(STREAM_INITIAL_SIZE);
+        long start = System.nanoTime();
+        EmployeeBinaryFormat.readEmployees(employeesBinary, (name, employeeId, hasManager, managerId) -> {
+            validator.accept(name, employeeId, hasManager, managerId);
+            builder.add(name, employeeId, hasManager ? managerId : CompactHierarchy.NO_MANAGER);
+        });
+        hierarchyMetrics.record(Phase.READ, start);
+
+        start = System.nanoTime();
+        ValidationReport report = validator.getReport();
+        hierarchyMetrics.record(Phase.VALIDATE, start);
+        return buildCompactHierarchy(report, builder);
+    }
+
+    /**
+     * Arranges the collected employees into a memory compact hierarchy if they passed validation
+     *
+     * @param report validation report of the collected employees
+     * @param builder builder holding all the employees in the organization
+     *
+     * @return Compact Hierarchy if the list is valid and throws a RuntimeException otherwise
+     */
+    protected CompactHierarchy buildCompactHierarchy(ValidationReport report, CompactHierarchy.Builder builder) {
+        return buildUncachedCompactHierarchy(report, builder);
+    }
+
+    private CompactHierarchy buildUncachedCompactHierarchy(ValidationReport report, CompactHierarchy.Builder builder) {
+        if (!report.isValid())
+            throw new InvalidEmployeeListException(report);
+        long start = System.nanoTime();
+        CompactHierarchy hierarchy = build(builder);
+        hierarchyMetrics.record(Phase.BUILD, start);
+        return getCompactHierarchyObject(hierarchy);
+    }
+
+    /**
+     * @param builder builder holding all the employees in the organization
      *
-     * @return true if exactly one CEO is found, false otherwise
+     * @return the employees arranged in pre-order, throws RuntimeException if some are not under the CEO
      */
-    private boolean isExactlyOneCEO(List<Employee> employees) {
-        //check if exactly one employee doesn't have a manager (The CEO)
-        return employees.stream().filter(e -> e.getManagerId() == null).count() == 1;
+    protected CompactHierarchy build(CompactHierarchy.Builder builder) {
+        return builder.build();
     }
 
     /**
-     *  Checks if manager Ids are all valid (all refer to valid employee ids and not the current employee)
+     *  Checks for list validity:
+     *      -   Employee names are all valid values (no nulls and no empty strings)
+     *      -   Employee Ids are all unique positive integers
+     *      -   Exactly one employee with no manager (The CEO)
+     *      -   Manager Ids are all valid (all refer to valid employee ids and not the current employee)
      *
      * @param employees list of employees to validate
      *
      * @return true if all conditions are met, false otherwise
      */
-    private boolean isValidManagerIds(List<Employee> employees) {
-        // if an employee's manager id refers to his own employee id, then this is invalid
-        if (employees.stream().filter(e -> e.getEmployeeId().equals(e.getManagerId())).count()!=0)
-            return false;
-
-        List<Integer> employeeIds = employees.stream()
-                .mapToInt(Employee::getEmployeeId)
-                .boxed().collect(Collectors.toList());
-        List<Integer> managerIds = employees.stream()
-                .filter(Employee::hasManager)
-                .mapToInt(Employee::getManagerId).distinct()
-                .boxed().collect(Collectors.toList());
-        //check if there's a manager id that is not one of the employees
-        return employeeIds.containsAll(managerIds);
+    public boolean isValidList(List<Employee> employees) {
+        return validate(employees).isValid();
     }
 
     /**
-     * A recursive method to go through all the employees and create a hierarchical representation
-     *  by filling the passed manager's subordinates if any or return and employee object if it has no subordinates
+     * Checks all the conditions listed in isValidList(...) in a single pass over the list
      *
-     * @param manager the current employee
+     * @param employees list of employees to validate
+     *
+     * @return report listing every violated condition with the offending employees
+     */
+    public ValidationReport validate(List<Employee> employees) {
+        EmployeeListValidator validator = new EmployeeListValidator(employees.size());
+        for (Employee employee : employees) {
+            validator.accept(employee.getName(), employee.getEmployeeId(), employee.getManagerId());
+        }
+        return validator.getReport();
+    }
+
+    /**
+     * Goes through all the employees and creates a hierarchical representation by filling the subordinates
+     *  of every employee under the passed CEO. Uses an explicit stack instead of recursion, so long reporting
+     *  chains don't overflow the thread stack.
+     *
+     * @param cEO the top employee of the hierarchy
      * @param allEmployees list of all employees to go through
      * @param seenEmployees list of employees covered so far
      *
      * @return the sent employee object cast to manager and filled with the subordinates list if any,
      *      otherwise return the same object with no change
      */
-    private Employee fillSubordinates(Employee manager, List<Employee> allEmployees, Set<Employee> seenEmployees) {
-
-        // this employee is already covered
-        seenEmployees.add(manager);
-
-        Employee processedEmployee;
-
-        //get all employees who have this manager
-        List<Employee> subordinateList = allEmployees.stream()
-                .filter(employee -> manager.getEmployeeId().equals(employee.getManagerId()))
-                .collect(Collectors.toList());
-
-        if (subordinateList.size() > 0 ) { // has subordinates
-            // Must use final or effectively final in lambda expression
-            Set<Employee> seenEmployeesToSend = seenEmployees;
-            // recursive call to fill the subordinates of the current employee if any
-            List<Employee> processedSubordinates = subordinateList.stream()
-                    .map(employee -> fillSubordinates(employee , allEmployees, seenEmployeesToSend))
-                    // Sort employees (under this manager) by Id
-                    .sorted()
-                    .collect(Collectors.toList());
-            processedEmployee = new Manager(manager, processedSubordinates);
-        } else { // if no subordinates exist, return the same object unchanged
-            processedEmployee = manager;
+    private Employee fillSubordinates(Employee cEO, List<Employee> allEmployees, Set<Employee> seenEmployees) {
+        Deque<PendingEmployee> pendingEmployees = new ArrayDeque<>();
+        pendingEmployees.push(new PendingEmployee(cEO, allEmployees, seenEmployees));
+
+        while (true) {
+            PendingEmployee current = pendingEmployees.peek();
+            if (current.subordinates.hasNext()) {
+                // go down to the next subordinate before finishing the current employee
+                pendingEmployees.push(new PendingEmployee(current.subordinates.next(), allEmployees, seenEmployees));
+                continue;
+            }
+
+            // all subordinates are processed, so the current employee can be finished
+            pendingEmployees.pop();
+            Employee processedEmployee;
+            if (current.processedSubordinates.size() > 0) { // has subordinates
+                // Sort employees (under this manager) by Id
+                Collections.sort(current.processedSubordinates);
+                processedEmployee = new Manager(current.employee, current.processedSubordinates);
+            } else { // if no subordinates exist, return the same object unchanged
+                processedEmployee = current.employee;
+            }
+
+            if (pendingEmployees.isEmpty())
+                return processedEmployee;
+            pendingEmployees.peek().processedSubordinates.add(processedEmployee);
         }
+    }
+
+    protected HierarchyMetrics getHierarchyMetrics() {
+        return hierarchyMetrics;
+    }
 
-        return processedEmployee;
+    /**
+     * Checks that the CEO of the given compact hierarchy has subordinates
+     *
+     * @param hierarchy the compact hierarchy after arranging the employees
+     *
+     * @return the same hierarchy if applicable, throws RuntimeException otherwise
+     */
+    protected CompactHierarchy getCompactHierarchyObject(CompactHierarchy hierarchy) {
+        if (hierarchy.getSize() == 1) // does not have any subordinates
+            throw new RuntimeException("CEO Does not have any subordinates");
+        return hierarchy;
     }
 
     /**
@@ -180,11 +290,30 @@ public class MomentonEmployeeHierarchyService implements EmployeeHierarchyServic
      *
      * @return EmployeeHierarchy object if applicable, throws RuntimeException otherwise
      */
-    private EmployeeHierarchy getHierarchyObject(Employee processedCEO) {
+    protected EmployeeHierarchy getHierarchyObject(Employee processedCEO) {
         if (processedCEO.getClass()!= Manager.class) // does not have any subordinates
             throw new RuntimeException("CEO Does not have any subordinates");
         return new EmployeeHierarchy((Manager) processedCEO);
     }
 
+    /**
+     * An employee on the fillSubordinates stack along with the subordinates that are still to be processed
+     */
+    private static class PendingEmployee {
+
+        private final Employee employee;
+        private final Iterator<Employee> subordinates;
+        private final List<Employee> processedSubordinates = new ArrayList<>();
+
+        private PendingEmployee(Employee employee, List<Employee> allEmployees, Set<Employee> seenEmployees) {
+            // this employee is already covered
+            seenEmployees.add(employee);
+            this.employee = employee;
+            //get all employees who have this manager
+            this.subordinates = allEmployees.stream()
+                    .filter(subordinate -> employee.getEmployeeId().equals(subordinate.getManagerId()))
+                    .iterator();
+        }
+    }
 
 }
@@ -0,0 +1,12 @@
+package com.momenton.service;
+
+/**
+ * Thrown when a request is not admitted because too many requests of its size are waiting already.
+ *  The caller is expected to try again later.
+ */
+public class RequestRejectedException extends RuntimeException {
+
+    public RequestRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package com.momenton.service;
+
+/**
+ * Set as the result of a request that didn't finish before its deadline, its work is cancelled
+ */
+public class RequestTimeoutException extends RuntimeException {
+
+    public RequestTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package com.momenton.service;
+
+/**
+ * Thrown when only part of a hierarchy is requested, but the hierarchy can't be kept in the cache,
+ *  so the cursors for the rest of it couldn't be followed.
+ */
+public class UncachedHierarchyException extends RuntimeException {
+
+    public UncachedHierarchyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package com.momenton.service;
+
+/**
+ * Thrown when a cursor is malformed, or refers to a hierarchy that is no longer cached.
+ *  The employee list has to be submitted again to get fresh cursors.
+ */
+public class UnknownCursorException extends RuntimeException {
+
+    public UnknownCursorException(String message) {
+        super(message);
+    }
+}
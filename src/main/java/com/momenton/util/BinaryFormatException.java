@@ -0,0 +1,13 @@
+package com.momenton.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request body doesn't follow the binary employee format
+ */
+public class BinaryFormatException extends IOException {
+
+    public BinaryFormatException(String message) {
+        super(message);
+    }
+}
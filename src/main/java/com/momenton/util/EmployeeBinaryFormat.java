@@ -0,0 +1,357 @@
+package com.momenton.util;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.Employee;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the compact binary representation of employee lists and hierarchies.
+ *
+ * Both start with a four byte magic number and a version byte, followed by a name table:
+ *  the number of names, then each name as its UTF-8 length plus one (0 for a null name) and its bytes.
+ *  All numbers are unsigned varints (7 bits per byte, least significant group first), ids are zigzag encoded.
+ *
+ * An employee list then holds the number of employees, and for each employee, in the order they were submitted:
+ *  the employee id, the manager id plus one (0 for the CEO) and the index of the name in the name table.
+ *
+ * A hierarchy then holds the number of employees, and for each employee, in pre-order (every manager comes
+ *  right before their subordinates): the employee id, the level (0 for the CEO) and the index of the name.
+ *  The manager of an employee is the closest employee before them whose level is one less.
+ *
+ * Employees are read and written through a fixed size ByteBuffer, without creating an object per employee.
+ */
+public class EmployeeBinaryFormat {
+
+    /**
+     * Media type of both the employee lists and the hierarchies
+     */
+    public static final String MEDIA_TYPE = "application/vnd.momenton.hierarchy";
+
+    private static final int EMPLOYEES_MAGIC = 0x454d504c; // "EMPL"
+    private static final int HIERARCHY_MAGIC = 0x48494552; // "HIER"
+    private static final byte VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // a longer name means a corrupt length, rather than allocating it
+    private static final int MAX_NAME_BYTES = 64 * 1024;
+    // room for the largest varint
+    private static final int MAX_VARINT_BYTES = 10;
+
+    // To Prevent Creating instances as utility classes should only be called in a static manner
+    private EmployeeBinaryFormat() {
+    }
+
+    /**
+     * Receives the fields of each employee read from an employee list, in the order they appear
+     */
+    public interface EmployeeHandler {
+        /**
+         * @param name employee name, the same String instance for every employee with that name
+         * @param employeeId employee id
+         * @param hasManager false for the CEO
+         * @param managerId manager id, 0 for the CEO
+         */
+        void accept(String name, int employeeId, boolean hasManager, int managerId);
+    }
+
+    /**
+     * Receives each employee read from a hierarchy, in pre-order
+     */
+    public interface HierarchyHandler {
+        void accept(String name, int employeeId, int level);
+    }
+
+    /**
+     * Reads a binary employee list and passes each employee to the given handler
+     *
+     * @param employees stream holding a binary employee list
+     * @param handler receives the fields of each employee
+     *
+     * @return number of employees read
+     * @throws IOException if the stream can't be read or doesn't hold a binary employee list
+     */
+    public static int readEmployees(InputStream employees, EmployeeHandler handler) throws IOException {
+        Input input = new Input(employees);
+        String[] names = input.readHeader(EMPLOYEES_MAGIC);
+        int count = input.readCount();
+        for (int row = 0; row < count; row++) {
+            int employeeId = input.readId();
+            long manager = input.readVarint();
+            if (manager > 1L << 32)
+                throw new BinaryFormatException("Manager id out of range in row " + row);
+            String name = names[input.readIndex(names.length)];
+            handler.accept(name, employeeId, manager != 0, manager == 0 ? 0 : zigzagDecode(manager - 1));
+        }
+        input.expectEnd();
+        return count;
+    }
+
+    /**
+     * Writes the given employees as a binary employee list
+     *
+     * @param employees the employees to write
+     * @param out where the list is written to, it's flushed but not closed
+     * @throws IOException if the stream fails
+     */
+    public static void writeEmployees(List<Employee> employees, OutputStream out) throws IOException {
+        Map<String, Integer> nameTable = new HashMap<>();
+        String[] names = new String[employees.size()];
+        for (Employee employee : employees) {
+            if (!nameTable.containsKey(employee.getName())) {
+                names[nameTable.size()] = employee.getName();
+                nameTable.put(employee.getName(), nameTable.size());
+            }
+        }
+
+        Output output = new Output(out);
+        output.writeHeader(EMPLOYEES_MAGIC, names, nameTable.size());
+        output.writeVarint(employees.size());
+        for (Employee employee : employees) {
+            Integer managerId = employee.getManagerId();
+            output.writeVarint(zigzagEncode(employee.getEmployeeId() == null ? 0 : employee.getEmployeeId()));
+            output.writeVarint(managerId == null ? 0 : zigzagEncode(managerId) + 1);
+            output.writeVarint(nameTable.get(employee.getName()));
+        }
+        output.flush();
+    }
+
+    /**
+     * Reads a binary hierarchy and passes each employee to the given handler
+     *
+     * @param hierarchy stream holding a binary hierarchy
+     * @param handler receives each employee, in pre-order
+     *
+     * @return number of employees read
+     * @throws IOException if the stream can't be read or doesn't hold a binary hierarchy
+     */
+    public static int readHierarchy(InputStream hierarchy, HierarchyHandler handler) throws IOException {
+        Input input = new Input(hierarchy);
+        String[] names = input.readHeader(HIERARCHY_MAGIC);
+        int count = input.readCount();
+        for (int position = 0; position < count; position++) {
+            int employeeId = input.readId();
+            int level = input.readCount();
+            handler.accept(names[input.readIndex(names.length)], employeeId, level);
+        }
+        input.expectEnd();
+        return count;
+    }
+
+    /**
+     * Writes the hierarchy in pre-order along with the level of every employee
+     *
+     * @param hierarchy the hierarchy to write
+     * @param out where the hierarchy is written to, it's flushed but not closed
+     * @throws IOException if the stream fails
+     */
+    public static void writeHierarchy(CompactHierarchy hierarchy, OutputStream out) throws IOException {
+        String[] names = new String[hierarchy.getNameCount()];
+        for (int nameIndex = 0; nameIndex < names.length; nameIndex++) {
+            names[nameIndex] = hierarchy.getNameFromTable(nameIndex);
+        }
+
+        Output output = new Output(out);
+        output.writeHeader(HIERARCHY_MAGIC, names, names.length);
+        output.writeVarint(hierarchy.getSize());
+        for (int position = 0; position < hierarchy.getSize(); position++) {
+            output.writeVarint(zigzagEncode(hierarchy.getEmployeeId(position)));
+            output.writeVarint(hierarchy.getLevel(position));
+            output.writeVarint(hierarchy.getNameIndex(position));
+        }
+        output.flush();
+    }
+
+    private static long zigzagEncode(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xffffffffL;
+    }
+
+    private static int zigzagDecode(long value) {
+        int bits = (int) value;
+        return (bits >>> 1) ^ -(bits & 1);
+    }
+
+    /**
+     * Reads the stream into a ByteBuffer and decodes the values straight from it
+     */
+    private static class Input {
+
+        private final InputStream in;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private Input(InputStream in) {
+            this.in = in;
+            buffer.limit(0);
+        }
+
+        private String[] readHeader(int magic) throws IOException {
+            if (readByte() != (byte) (magic >>> 24) || readByte() != (byte) (magic >>> 16)
+                    || readByte() != (byte) (magic >>> 8) || readByte() != (byte) magic)
+                throw new BinaryFormatException("Unexpected content, not a binary "
+                        + (magic == EMPLOYEES_MAGIC ? "employee list" : "hierarchy"));
+            byte version = readByte();
+            if (version != VERSION)
+                throw new BinaryFormatException("Unsupported version " + version);
+
+            int nameCount = readCount();
+            // grown while the names are read, so a corrupt count doesn't allocate a huge table up front
+            String[] names = new String[Math.min(nameCount, 1024)];
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+            for (int nameIndex = 0; nameIndex < nameCount; nameIndex++) {
+                if (nameIndex == names.length)
+                    names = Arrays.copyOf(names, names.length * 2);
+                long length = readVarint();
+                if (length > MAX_NAME_BYTES + 1L)
+                    throw new BinaryFormatException("Name " + nameIndex + " is longer than " + MAX_NAME_BYTES + " bytes");
+                if (length != 0)
+                    names[nameIndex] = readName((int) length - 1, decoder);
+            }
+            return names.length == nameCount ? names : Arrays.copyOf(names, nameCount);
+        }
+
+        private String readName(int length, CharsetDecoder decoder) throws IOException {
+            ByteBuffer bytes;
+            if (buffer.remaining() >= length) {
+                // decoded straight from the buffer
+                bytes = buffer.slice();
+                bytes.limit(length);
+                buffer.position(buffer.position() + length);
+            } else {
+                byte[] array = new byte[length];
+                for (int offset = 0; offset < length; ) {
+                    if (!buffer.hasRemaining() && !fill())
+                        throw new BinaryFormatException("Unexpected end of data");
+                    int chunk = Math.min(buffer.remaining(), length - offset);
+                    buffer.get(array, offset, chunk);
+                    offset += chunk;
+                }
+                bytes = ByteBuffer.wrap(array);
+            }
+            try {
+                return decoder.decode(bytes).toString();
+            } catch (CharacterCodingException e) {
+                throw new BinaryFormatException("Name is not valid UTF-8");
+            }
+        }
+
+        private int readCount() throws IOException {
+            long value = readVarint();
+            if (value > Integer.MAX_VALUE)
+                throw new BinaryFormatException("Count out of range: " + value);
+            return (int) value;
+        }
+
+        private int readId() throws IOException {
+            long value = readVarint();
+            if (value > 0xffffffffL)
+                throw new BinaryFormatException("Id out of range: " + value);
+            return zigzagDecode(value);
+        }
+
+        private int readIndex(int size) throws IOException {
+            long value = readVarint();
+            if (value >= size)
+                throw new BinaryFormatException("Name index " + value + " is not in the name table of " + size);
+            return (int) value;
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+                byte b = buffer.hasRemaining() ? buffer.get() : readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            throw new BinaryFormatException("Malformed varint");
+        }
+
+        private byte readByte() throws IOException {
+            if (!buffer.hasRemaining() && !fill())
+                throw new BinaryFormatException("Unexpected end of data");
+            return buffer.get();
+        }
+
+        private void expectEnd() throws IOException {
+            if (buffer.hasRemaining() || fill())
+                throw new BinaryFormatException("Unexpected data after the last employee");
+        }
+
+        // reads the next chunk of the stream, returns false at the end of the stream
+        private boolean fill() throws IOException {
+            buffer.clear();
+            int read;
+            do {
+                read = in.read(buffer.array(), buffer.arrayOffset(), buffer.capacity());
+            } while (read == 0);
+            buffer.limit(Math.max(read, 0));
+            return read > 0;
+        }
+    }
+
+    /**
+     * Encodes the values into a ByteBuffer and writes it to the stream whenever it fills up
+     */
+    private static class Output {
+
+        private final OutputStream out;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        private Output(OutputStream out) {
+            this.out = out;
+        }
+
+        private void writeHeader(int magic, String[] names, int nameCount) throws IOException {
+            buffer.putInt(magic);
+            buffer.put(VERSION);
+            writeVarint(nameCount);
+            for (int nameIndex = 0; nameIndex < nameCount; nameIndex++) {
+                String name = names[nameIndex];
+                if (name == null) {
+                    writeVarint(0);
+                    continue;
+                }
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                writeVarint(bytes.length + 1L);
+                for (int offset = 0; offset < bytes.length; ) {
+                    if (!buffer.hasRemaining())
+                        drain();
+                    int length = Math.min(buffer.remaining(), bytes.length - offset);
+                    buffer.put(bytes, offset, length);
+                    offset += length;
+                }
+            }
+        }
+
+        private void writeVarint(long value) throws IOException {
+            if (buffer.remaining() < MAX_VARINT_BYTES)
+                drain();
+            while ((value & ~0x7fL) != 0) {
+                buffer.put((byte) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+        private void drain() throws IOException {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            buffer.clear();
+        }
+    }
+
+}
@@ -1,29 +1,17 @@
 package com.momenton.util;
 
-import com.momenton.model.Employee;
+import com.momenton.model.CompactHierarchy;
 import com.momenton.model.EmployeeHierarchy;
-import com.momenton.model.Manager;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.Writer;
 
+/**
+ * Formats hierarchies using the renderer of the requested display type.
+ *  Holds no state of its own, so it can be called from any number of request threads at once.
+ */
 public class EmployeeHierarchyFormatter {
 
-    private static String emptyItem;
-    private static String startLine;
-    private static String endLine;
-    private static String openItem;
-    private static String closeItem;
-
-    // Add border and padding to the table. Just for Testing purposes.
-    // Should't exist in production environment to allow the caller to use their own styling
-    private static final String HTML_TABLE_STYLE = "<style>\n" +
-            "table, td {\n" +
-            "   border: 1px solid;\n" +
-            "   border-collapse: collapse;\n" +
-            "   padding: 4px;\n" +
-            "}\n" +
-            "</style>\n";
-
     // To Prevent Creating instances as utility classes should only be called in a static manner
     private EmployeeHierarchyFormatter() {
     }
@@ -35,25 +23,18 @@ public class EmployeeHierarchyFormatter {
      * @return styled html table representing the hierarchy
      */
     public static String getHTMLRepresentation(EmployeeHierarchy hierarchy) {
-        assignStringValues(DisplayType.HTML);
-        StringBuilder htmlString = new StringBuilder(HTML_TABLE_STYLE);
-        htmlString.append("EmployeeHierarchy: <br/>");
-        // First Row containing the CEO
-        htmlString.append("<table>").append(startLine).append(openItem)
-                .append(hierarchy.getCEO().getName()).append(closeItem);
-        int depth = hierarchy.getDepth();
-        // add empty cells at the end of the row
-        for (int column = 1; column < depth; column++) {
-            htmlString.append(emptyItem);
-        }
-        htmlString.append(endLine);
-        // Get the rest of the table rows
-        htmlString.append(getSubordinateString(1, depth, hierarchy.getCEO().getSubordinates()));
-        // close table
-        htmlString.append("</table>");
-        return htmlString.toString();
+        return DisplayType.HTML.getRenderer().render(hierarchy);
     }
 
+    /**
+     * return an html table snippet that represents the hierarchy of the employees in the organization
+     *
+     * @param hierarchy the compact organizational hierarchy
+     * @return styled html table representing the hierarchy
+     */
+    public static String getHTMLRepresentation(CompactHierarchy hierarchy) {
+        return DisplayType.HTML.getRenderer().render(hierarchy);
+    }
 
     /**
      * return a table-like text that represents the hierarchy of the employees in the organization
@@ -62,75 +43,83 @@ public class EmployeeHierarchyFormatter {
      * @return styled table-like text representing the hierarchy
      */
     public static String getTextRepresentation(EmployeeHierarchy hierarchy) {
-        assignStringValues(DisplayType.TEXT);
-        StringBuilder hierarchicalTextDisplay = new StringBuilder("\nEmployeeHierarchy:\n");
-        // first row
-        hierarchicalTextDisplay.append(openItem).append(hierarchy.getCEO().getName())
-                .append(closeItem).append(endLine); // No need to add empty items at the end
-        // get the rest of the table
-        hierarchicalTextDisplay.append(getSubordinateString(1, hierarchy.getDepth(), hierarchy.getCEO().getSubordinates()));
-        return hierarchicalTextDisplay.toString();
+        return DisplayType.TEXT.getRenderer().render(hierarchy);
     }
 
     /**
-     * Recursive method to go through the employees and create the appropriate representation according to the DisplayType
+     * return a table-like text that represents the hierarchy of the employees in the organization
      *
-     * @param level The level of the current iteration (CEO is level 0 Their subordinates are level 1 and so on)
-     * @param depth The depth of the hierarchy
-     * @param subordinates List of subordinate employees
+     * @param hierarchy the compact organizational hierarchy
+     * @return styled table-like text representing the hierarchy
+     */
+    public static String getTextRepresentation(CompactHierarchy hierarchy) {
+        return DisplayType.TEXT.getRenderer().render(hierarchy);
+    }
+
+    /**
+     * write an html table snippet that represents the hierarchy of the employees in the organization,
+     *  one row at a time, so the whole table is never held in memory
      *
-     * @return Subordinates formatted according to the display type.
+     * @param hierarchy the organizational hierarchy object
+     * @param writer where the table is written to
+     * @throws IOException if the writer fails
      */
-    private static String getSubordinateString (int level, int depth, List<Employee> subordinates) {
-        StringBuilder subordinateString = new StringBuilder();
-        for (Employee employee: subordinates) {
-            subordinateString.append(startLine);
-            // add preceding empty cells
-            for (int colBefore = 0; colBefore < level; colBefore++) {
-                subordinateString.append(emptyItem);
-            }
-            // add the current employee
-            subordinateString.append(openItem).append(employee.getName()).append(closeItem);
-            // add following empty cells
-            for (int colAfter = level + 1; colAfter < depth; colAfter++) {
-                subordinateString.append(emptyItem);
-            }
-            subordinateString.append(endLine);
-            if (employee.getClass().equals(Manager.class)) {
-                Manager manager = (Manager) employee;
-                // add lines/ rows for each of the subordinates
-                subordinateString.append(getSubordinateString(level + 1, depth,  manager.getSubordinates()));
-            }
-        }
-        return subordinateString.toString();
+    public static void writeHTMLRepresentation(EmployeeHierarchy hierarchy, Writer writer) throws IOException {
+        DisplayType.HTML.getRenderer().write(hierarchy, writer);
     }
 
     /**
-     * Assign the strings used in creating the formatted hierarchy according to the given display type
+     * write an html table snippet that represents the hierarchy of the employees in the organization,
+     *  one row at a time, so the whole table is never held in memory
      *
-     * @param displayType Display type of the requested representation (Currently Text or HTML)
+     * @param hierarchy the compact organizational hierarchy
+     * @param writer where the table is written to
+     * @throws IOException if the writer fails
      */
-    private static void assignStringValues(DisplayType displayType) {
-        switch (displayType) {
-            case HTML:
-                startLine = "<tr>";
-                emptyItem = "<td></td>";
-                openItem = "<td>";
-                closeItem = "</td>";
-                endLine = "</tr>";
-                break;
-            case TEXT:
-                startLine = "";
-                emptyItem = "\t\t|";
-                openItem = "";
-                closeItem = "\t|";
-                endLine = "\n";
-        }
+    public static void writeHTMLRepresentation(CompactHierarchy hierarchy, Writer writer) throws IOException {
+        DisplayType.HTML.getRenderer().write(hierarchy, writer);
     }
 
-    private enum DisplayType {
-        HTML,
-        TEXT;
+    /**
+     * write a table-like text that represents the hierarchy of the employees in the organization,
+     *  one row at a time, so the whole text is never held in memory
+     *
+     * @param hierarchy the organizational hierarchy object
+     * @param writer where the text is written to
+     * @throws IOException if the writer fails
+     */
+    public static void writeTextRepresentation(EmployeeHierarchy hierarchy, Writer writer) throws IOException {
+        DisplayType.TEXT.getRenderer().write(hierarchy, writer);
+    }
+
+    /**
+     * write a table-like text that represents the hierarchy of the employees in the organization,
+     *  one row at a time, so the whole text is never held in memory
+     *
+     * @param hierarchy the compact organizational hierarchy
+     * @param writer where the text is written to
+     * @throws IOException if the writer fails
+     */
+    public static void writeTextRepresentation(CompactHierarchy hierarchy, Writer writer) throws IOException {
+        DisplayType.TEXT.getRenderer().write(hierarchy, writer);
+    }
+
+    /**
+     * The supported display types, each one with its own immutable renderer
+     */
+    public enum DisplayType {
+        HTML(TableHierarchyRenderer.HTML),
+        TEXT(TableHierarchyRenderer.TEXT);
+
+        private final HierarchyRenderer renderer;
+
+        DisplayType(HierarchyRenderer renderer) {
+            this.renderer = renderer;
+        }
+
+        public HierarchyRenderer getRenderer() {
+            return renderer;
+        }
     }
 
 }
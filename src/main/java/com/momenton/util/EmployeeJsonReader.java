@@ -0,0 +1,127 @@
+package com.momenton.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a JSON array of employees token by token and hands every employee's fields to a handler
+ *  as soon as the employee is read, so no Employee objects (or list of them) are created.
+ *
+ * Accepts the same input as binding to List&lt;Employee&gt;: missing names default to an empty string,
+ *  missing employee ids default to 0 and missing manager ids default to null. Unknown fields are skipped.
+ */
+public class EmployeeJsonReader {
+
+    private static final String NAME = "name";
+    private static final String EMPLOYEE_ID = "employeeId";
+    private static final String MANAGER_ID = "managerId";
+
+    // thread safe once configured, shared by all requests
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    // To Prevent Creating instances as utility classes should only be called in a static manner
+    private EmployeeJsonReader() {
+    }
+
+    /**
+     * Receives the fields of each employee read from the stream, in the order they appear
+     */
+    public interface EmployeeHandler {
+        void accept(String name, Integer employeeId, Integer managerId);
+    }
+
+    /**
+     * Reads a JSON array of employees and passes each employee to the given handler
+     *
+     * @param employeesJson stream holding a JSON array of employee objects
+     * @param handler receives the fields of each employee
+     *
+     * @return number of employees read
+     * @throws IOException if the stream can't be read or doesn't hold an array of employee objects
+     */
+    public static int read(InputStream employeesJson, EmployeeHandler handler) throws IOException {
+        try (JsonParser parser = createParser(employeesJson)) {
+            return read(parser, handler);
+        }
+    }
+
+    /**
+     * Reads the JSON array of employees starting at the next token of the parser, and passes each employee
+     *  to the given handler. The parser is left on the end of the array and isn't closed.
+     *
+     * @param parser parser whose next token starts an array of employee objects
+     * @param handler receives the fields of each employee
+     *
+     * @return number of employees read
+     * @throws IOException if the parser can't be read or doesn't hold an array of employee objects
+     */
+    public static int read(JsonParser parser, EmployeeHandler handler) throws IOException {
+        int count = 0;
+        if (parser.nextToken() != JsonToken.START_ARRAY)
+            throw new JsonParseException(parser, "Expected an array of employees");
+
+        JsonToken token;
+        while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+            // same defaults as the Employee default constructor
+            String name = "";
+            Integer employeeId = 0;
+            Integer managerId = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case NAME:
+                        name = value == JsonToken.VALUE_NULL ? null : parser.getValueAsString();
+                        break;
+                    case EMPLOYEE_ID:
+                        employeeId = readInteger(parser, value);
+                        break;
+                    case MANAGER_ID:
+                        managerId = readInteger(parser, value);
+                        break;
+                    default:
+                        // ignore unknown fields, including nested objects and arrays
+                        parser.skipChildren();
+                }
+            }
+            handler.accept(name, employeeId, managerId);
+            count++;
+        }
+        if (token != JsonToken.END_ARRAY)
+            throw new JsonParseException(parser, "Expected an employee object");
+        return count;
+    }
+
+    /**
+     * @param json stream holding JSON
+     *
+     * @return a parser over the stream, closing the stream when it is closed
+     * @throws IOException if the stream can't be read
+     */
+    public static JsonParser createParser(InputStream json) throws IOException {
+        return JSON_FACTORY.createParser(json);
+    }
+
+    private static Integer readInteger(JsonParser parser, JsonToken value) throws IOException {
+        switch (value) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_NUMBER_INT:
+                return parser.getIntValue();
+            case VALUE_STRING:
+                try {
+                    return Integer.valueOf(parser.getText().trim());
+                } catch (NumberFormatException e) {
+                    throw new JsonParseException(parser, "Expected an integer but found \"" + parser.getText() + "\"");
+                }
+            default:
+                throw new JsonParseException(parser, "Expected an integer but found " + value);
+        }
+    }
+
+}
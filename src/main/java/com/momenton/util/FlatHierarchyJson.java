@@ -0,0 +1,138 @@
+package com.momenton.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.momenton.model.CompactHierarchy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Reads and writes a hierarchy as a flat JSON array of rows, instead of objects nested one level per layer:
+ *
+ *  [{"id": 150, "name": "Jamie", "managerId": null, "depth": 0, "subtreeSize": 6}, ...]
+ *
+ * The rows are in pre-order, every manager comes right before their subordinates, and subtreeSize counts
+ *  the employee along with everyone under them. Rows are written and read one at a time with the streaming
+ *  Jackson API, so the time is linear and the stack use constant however deep the hierarchy is.
+ */
+public class FlatHierarchyJson {
+
+    public static final String MEDIA_TYPE = "application/vnd.momenton.hierarchy.flat+json";
+
+    private static final String ID = "id";
+    private static final String NAME = "name";
+    private static final String MANAGER_ID = "managerId";
+    private static final String DEPTH = "depth";
+    private static final String SUBTREE_SIZE = "subtreeSize";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    // To Prevent Creating instances as utility classes should only be called in a static manner
+    private FlatHierarchyJson() {
+    }
+
+    /**
+     * Receives each row read from a flat hierarchy, in the order they appear
+     */
+    public interface RowHandler {
+        /**
+         * @param id employee id
+         * @param name employee name
+         * @param managerId manager id, null for the CEO
+         * @param depth level of the employee, 0 for the CEO
+         * @param subtreeSize number of employees under this one, including the employee itself
+         */
+        void accept(int id, String name, Integer managerId, int depth, int subtreeSize);
+    }
+
+    /**
+     * Writes the hierarchy as a flat array of rows in pre-order. The stream is flushed but not closed.
+     *
+     * @param hierarchy the hierarchy to write
+     * @param out where the JSON is written to
+     * @throws IOException if the stream can't be written
+     */
+    public static void write(CompactHierarchy hierarchy, OutputStream out) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartArray();
+            for (int position = 0; position < hierarchy.getSize(); position++) {
+                generator.writeStartObject();
+                generator.writeNumberField(ID, hierarchy.getEmployeeId(position));
+                generator.writeStringField(NAME, hierarchy.getName(position));
+                int managerId = hierarchy.getManagerId(position);
+                if (managerId == CompactHierarchy.NO_MANAGER)
+                    generator.writeNullField(MANAGER_ID);
+                else
+                    generator.writeNumberField(MANAGER_ID, managerId);
+                generator.writeNumberField(DEPTH, hierarchy.getLevel(position));
+                generator.writeNumberField(SUBTREE_SIZE, hierarchy.getSubtreeSize(position));
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    /**
+     * Reads a flat hierarchy and passes each row to the given handler
+     *
+     * @param hierarchy stream holding a flat hierarchy
+     * @param handler receives the fields of each row
+     *
+     * @return number of rows read
+     * @throws IOException if the stream can't be read or doesn't hold an array of rows
+     */
+    public static int read(InputStream hierarchy, RowHandler handler) throws IOException {
+        int count = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(hierarchy)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY)
+                throw new JsonParseException(parser, "Expected an array of rows");
+
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                Integer id = null;
+                String name = null;
+                Integer managerId = null;
+                Integer depth = null;
+                Integer subtreeSize = null;
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken value = parser.nextToken();
+                    switch (field) {
+                        case ID:
+                            id = parser.getIntValue();
+                            break;
+                        case NAME:
+                            name = value == JsonToken.VALUE_NULL ? null : parser.getText();
+                            break;
+                        case MANAGER_ID:
+                            managerId = value == JsonToken.VALUE_NULL ? null : parser.getIntValue();
+                            break;
+                        case DEPTH:
+                            depth = parser.getIntValue();
+                            break;
+                        case SUBTREE_SIZE:
+                            subtreeSize = parser.getIntValue();
+                            break;
+                        default:
+                            // ignore fields added later, including nested objects and arrays
+                            parser.skipChildren();
+                    }
+                }
+                if (id == null || depth == null || subtreeSize == null)
+                    throw new JsonParseException(parser, "Row " + count + " lacks its id, depth or subtreeSize");
+                handler.accept(id, name, managerId, depth, subtreeSize);
+                count++;
+            }
+            if (token != JsonToken.END_ARRAY)
+                throw new JsonParseException(parser, "Expected a row object");
+        }
+        return count;
+    }
+
+}
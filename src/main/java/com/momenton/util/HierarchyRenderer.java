@@ -0,0 +1,65 @@
+package com.momenton.util;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.EmployeeHierarchy;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Renders a hierarchy in one display format. Implementations hold no mutable state,
+ *  so one instance can serve any number of requests at the same time.
+ */
+public interface HierarchyRenderer {
+
+    /**
+     * write the representation of the hierarchy, one row at a time
+     *
+     * @param hierarchy the organizational hierarchy object
+     * @param writer where the representation is written to
+     * @throws IOException if the writer fails
+     */
+    void write(EmployeeHierarchy hierarchy, Writer writer) throws IOException;
+
+    /**
+     * write the representation of the hierarchy, one row at a time
+     *
+     * @param hierarchy the compact organizational hierarchy
+     * @param writer where the representation is written to
+     * @throws IOException if the writer fails
+     */
+    void write(CompactHierarchy hierarchy, Writer writer) throws IOException;
+
+    /**
+     * @param hierarchy the organizational hierarchy object
+     * @return the whole representation of the hierarchy
+     */
+    default String render(EmployeeHierarchy hierarchy) {
+        StringWriter writer = new StringWriter();
+        try {
+            write(hierarchy, writer);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw IOException
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * @param hierarchy the compact organizational hierarchy
+     * @return the whole representation of the hierarchy
+     */
+    default String render(CompactHierarchy hierarchy) {
+        StringWriter writer = new StringWriter();
+        try {
+            write(hierarchy, writer);
+        } catch (IOException e) {
+            // a StringWriter doesn't throw IOException
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.momenton.util;
+
+/**
+ * A minimal open addressing hash map from primitive int keys to primitive int values.
+ *  Used instead of Map&lt;Integer, Integer&gt; when indexing employees by id, so no boxing
+ *  or entry objects are created per employee.
+ */
+public class IntIntHashMap {
+
+    // zero marks an empty slot, so a zero key is kept outside of the table
+    private static final int FREE_KEY = 0;
+    private static final int MIN_CAPACITY = 8;
+
+    private final int missingValue;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    private boolean hasFreeKey;
+    private int freeKeyValue;
+
+    /**
+     * @param expectedSize number of keys expected to be stored, used to size the table up front
+     * @param missingValue value returned by get(key) when the key is not in the map
+     */
+    public IntIntHashMap(int expectedSize, int missingValue) {
+        this.missingValue = missingValue;
+        int capacity = MIN_CAPACITY;
+        // keep the load factor at or below 0.5
+        while (capacity < expectedSize * 2L && capacity < (1 << 30))
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     * @param key the key to look up
+     *
+     * @return the value mapped to the given key, or the missing value if the key is absent
+     */
+    public int get(int key) {
+        if (key == FREE_KEY)
+            return hasFreeKey ? freeKeyValue : missingValue;
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key)
+                return values[slot];
+            slot = (slot + 1) & mask;
+        }
+        return missingValue;
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE_KEY)
+            return hasFreeKey;
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * @param key the key to add or replace
+     * @param value the value to map to the key
+     *
+     * @return the previous value mapped to the key, or the missing value if the key was absent
+     */
+    public int put(int key, int value) {
+        if (key == FREE_KEY) {
+            int previous = hasFreeKey ? freeKeyValue : missingValue;
+            if (!hasFreeKey)
+                size++;
+            hasFreeKey = true;
+            freeKeyValue = value;
+            return previous;
+        }
+        int slot = slot(key);
+        while (keys[slot] != FREE_KEY) {
+            if (keys[slot] == key) {
+                int previous = values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length)
+            rehash(keys.length << 1);
+        return missingValue;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(int key) {
+        // spread the bits so sequential ids don't cluster in neighbouring slots
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int slot = slot(key);
+                while (keys[slot] != FREE_KEY)
+                    slot = (slot + 1) & mask;
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.momenton.util;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, used to collect ids without boxing them into Integer objects
+ */
+public class IntList {
+
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private int[] elements;
+    private int size;
+
+    public IntList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntList(int initialCapacity) {
+        elements = new int[Math.max(initialCapacity, 1)];
+    }
+
+    public void add(int element) {
+        if (size == elements.length)
+            elements = Arrays.copyOf(elements, elements.length << 1);
+        elements[size++] = element;
+    }
+
+    public int get(int index) {
+        if (index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return elements[index];
+    }
+
+    /**
+     * @return the last element, which is removed from the list
+     */
+    public int removeLast() {
+        if (size == 0)
+            throw new IndexOutOfBoundsException("The list is empty");
+        return elements[--size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Empties the list, keeping its capacity
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return a copy of the elements trimmed to the size of the list
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
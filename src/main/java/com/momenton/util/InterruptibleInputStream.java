@@ -0,0 +1,40 @@
+package com.momenton.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Passes everything through from the wrapped stream until the reading thread is interrupted,
+ *  so a request whose deadline passed stops being read at the next chunk instead of running to the end
+ */
+public class InterruptibleInputStream extends FilterInputStream {
+
+    public InterruptibleInputStream(InputStream in) {
+        super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkInterrupted();
+        return in.read();
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        checkInterrupted();
+        return in.read(bytes, offset, length);
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+        checkInterrupted();
+        return in.skip(count);
+    }
+
+    private static void checkInterrupted() throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Reading the request was interrupted");
+    }
+}
@@ -0,0 +1,176 @@
+package com.momenton.util;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.Employee;
+import com.momenton.model.EmployeeHierarchy;
+import com.momenton.model.Manager;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Renders a hierarchy as a table with one row per employee and one column per level,
+ *  where every employee sits in the column of its level and the other cells are empty.
+ *
+ * Immutable: the strings of a format are fixed at construction, and the runs of empty cells used as
+ *  padding are precomputed, so a row is written with a handful of writes whatever its width.
+ */
+public final class TableHierarchyRenderer implements HierarchyRenderer {
+
+    // Add border and padding to the table. Just for Testing purposes.
+    // Should't exist in production environment to allow the caller to use their own styling
+    private static final String HTML_TABLE_STYLE = "<style>\n" +
+            "table, td {\n" +
+            "   border: 1px solid;\n" +
+            "   border-collapse: collapse;\n" +
+            "   padding: 4px;\n" +
+            "}\n" +
+            "</style>\n";
+
+    // number of empty cells written at once
+    private static final int PADDING_RUN = 64;
+
+    public static final TableHierarchyRenderer HTML = new TableHierarchyRenderer(
+            HTML_TABLE_STYLE + "EmployeeHierarchy: <br/><table>", "</table>",
+            "<tr>", "<td></td>", "<td>", "</td>", "</tr>", true);
+
+    public static final TableHierarchyRenderer TEXT = new TableHierarchyRenderer(
+            "\nEmployeeHierarchy:\n", "",
+            "", "\t\t|", "", "\t|", "\n", false);
+
+    private final String header;
+    private final String footer;
+    private final String openItem;
+    private final String endLine;
+    private final int emptyItemLength;
+    private final boolean padFirstRow;
+    // start of a row followed by a run of empty cells
+    private final String startLineRun;
+    private final int startLineLength;
+    // end of an item followed by a run of empty cells
+    private final String closeItemRun;
+    private final int closeItemLength;
+    // a run of empty cells only
+    private final String emptyItemRun;
+
+    /**
+     * @param header written before the first row
+     * @param footer written after the last row
+     * @param startLine written at the start of every row
+     * @param emptyItem an empty cell
+     * @param openItem written before an employee name
+     * @param closeItem written after an employee name
+     * @param endLine written at the end of every row
+     * @param padFirstRow whether the CEO row is padded with empty cells up to the depth of the hierarchy
+     */
+    public TableHierarchyRenderer(String header, String footer, String startLine, String emptyItem,
+                                  String openItem, String closeItem, String endLine, boolean padFirstRow) {
+        this.header = Objects.requireNonNull(header);
+        this.footer = Objects.requireNonNull(footer);
+        this.openItem = Objects.requireNonNull(openItem);
+        this.endLine = Objects.requireNonNull(endLine);
+        this.padFirstRow = padFirstRow;
+        this.emptyItemLength = emptyItem.length();
+
+        StringBuilder run = new StringBuilder(emptyItem.length() * PADDING_RUN);
+        for (int cell = 0; cell < PADDING_RUN; cell++) {
+            run.append(emptyItem);
+        }
+        this.emptyItemRun = run.toString();
+        this.startLineRun = startLine + emptyItemRun;
+        this.startLineLength = startLine.length();
+        this.closeItemRun = closeItem + emptyItemRun;
+        this.closeItemLength = closeItem.length();
+    }
+
+    @Override
+    public void write(EmployeeHierarchy hierarchy, Writer writer) throws IOException {
+        int depth = hierarchy.getDepth();
+        writer.write(header);
+        // First Row containing the CEO
+        writeRow(0, padFirstRow ? depth : 1, hierarchy.getCEO().getName(), writer);
+        // Get the rest of the table rows
+        writeSubordinates(1, depth, hierarchy.getCEO().getSubordinates(), writer);
+        writer.write(footer);
+    }
+
+    @Override
+    public void write(CompactHierarchy hierarchy, Writer writer) throws IOException {
+        int depth = hierarchy.getDepth();
+        writer.write(header);
+        // First Row containing the CEO
+        writeRow(0, padFirstRow ? depth : 1, hierarchy.getName(0), writer);
+        // the rest of the employees are already stored in pre-order
+        for (int position = 1; position < hierarchy.getSize(); position++) {
+            writeRow(hierarchy.getLevel(position), depth, hierarchy.getName(position), writer);
+        }
+        writer.write(footer);
+    }
+
+    /**
+     * Go through the employees and write a row for each of them.
+     *  Walks the hierarchy with an explicit stack of sibling iterators instead of recursion,
+     *  so deep hierarchies don't overflow the thread stack.
+     *
+     * @param level The level of the given subordinates (CEO is level 0 Their subordinates are level 1 and so on)
+     * @param depth The depth of the hierarchy
+     * @param subordinates List of subordinate employees
+     * @param writer where the rows are written to
+     */
+    private void writeSubordinates(int level, int depth, List<Employee> subordinates, Writer writer)
+            throws IOException {
+        Deque<Iterator<Employee>> pendingLists = new ArrayDeque<>();
+        pendingLists.push(subordinates.iterator());
+        while (!pendingLists.isEmpty()) {
+            Iterator<Employee> siblings = pendingLists.peek();
+            if (!siblings.hasNext()) {
+                pendingLists.pop();
+                continue;
+            }
+            Employee employee = siblings.next();
+            writeRow(level + pendingLists.size() - 1, depth, employee.getName(), writer);
+            if (employee.getClass().equals(Manager.class)) {
+                Manager manager = (Manager) employee;
+                // add lines/ rows for each of the subordinates right after their manager
+                pendingLists.push(manager.getSubordinates().iterator());
+            }
+        }
+    }
+
+    /**
+     * Write one row of the table holding a single employee at the column of its level
+     *
+     * @param level The level of the employee (CEO is level 0 Their subordinates are level 1 and so on)
+     * @param depth The number of columns of the row
+     * @param name the employee name
+     * @param writer where the row is written to
+     */
+    private void writeRow(int level, int depth, String name, Writer writer) throws IOException {
+        // start the row along with the preceding empty cells
+        int cellsBefore = Math.min(level, PADDING_RUN);
+        writer.write(startLineRun, 0, startLineLength + cellsBefore * emptyItemLength);
+        writeEmptyItems(level - cellsBefore, writer);
+        // add the current employee and close it along with the following empty cells
+        writer.write(openItem);
+        writer.write(name);
+        int following = Math.max(depth - level - 1, 0);
+        int cellsAfter = Math.min(following, PADDING_RUN);
+        writer.write(closeItemRun, 0, closeItemLength + cellsAfter * emptyItemLength);
+        writeEmptyItems(following - cellsAfter, writer);
+        writer.write(endLine);
+    }
+
+    private void writeEmptyItems(int count, Writer writer) throws IOException {
+        while (count > 0) {
+            int cells = Math.min(count, PADDING_RUN);
+            writer.write(emptyItemRun, 0, cells * emptyItemLength);
+            count -= cells;
+        }
+    }
+
+}
@@ -6,6 +6,9 @@ import org.junit.runner.RunWith;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 @RunWith(SpringRunner.class)
@@ -46,4 +49,18 @@ public class EmployeeHierarchyModelTest {
         assertNull(new Employee().getManagerId());
     }
 
+    @Test
+    public void testDepthOfDeepestSibling() {
+        // the deepest branch comes first and a shallower manager comes last
+        Manager deepManager = new Manager(new Employee("Deep", 2, 1),
+                new ArrayList<>(Arrays.asList(new Manager(new Employee("Middle", 4, 2),
+                        new ArrayList<>(Arrays.asList(new Employee("Bottom", 5, 4)))))));
+        Manager shallowManager = new Manager(new Employee("Shallow", 3, 1),
+                new ArrayList<>(Arrays.asList(new Employee("Leaf", 6, 3))));
+        Manager cEO = new Manager(new Employee("CEO", 1),
+                new ArrayList<>(Arrays.asList(deepManager, shallowManager)));
+
+        assertEquals(4, new EmployeeHierarchy(cEO).getDepth());
+    }
+
 }
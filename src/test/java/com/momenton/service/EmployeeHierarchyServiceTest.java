@@ -2,17 +2,44 @@ package com.momenton.service;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.momenton.model.CompactHierarchy;
 import com.momenton.model.Employee;
 import com.momenton.model.EmployeeHierarchy;
+import com.momenton.model.HierarchyDiff;
+import com.momenton.model.HierarchyNode;
+import com.momenton.model.HierarchyPage;
 import com.momenton.model.Manager;
+import com.momenton.model.ValidationReport;
+import com.momenton.model.ValidationReport.ViolationType;
+import com.momenton.util.BinaryFormatException;
+import com.momenton.util.EmployeeBinaryFormat;
+import com.momenton.util.EmployeeHierarchyFormatter;
+import com.momenton.util.FlatHierarchyJson;
 import org.junit.Test;
+import org.junit.jupiter.api.function.Executable;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -23,6 +50,18 @@ public class EmployeeHierarchyServiceTest {
     @Autowired
     private EmployeeHierarchyService employeeHierarchyService;
 
+    @Autowired
+    private HierarchyCache hierarchyCache;
+
+    @Autowired
+    private HierarchyBatchService hierarchyBatchService;
+
+    @Autowired
+    private HierarchyPager hierarchyPager;
+
+    @Autowired
+    private HierarchyDiffService hierarchyDiffService;
+
     private List<Employee> allEmployees = new ArrayList<>();
 
     @Test
@@ -78,6 +117,91 @@ public class EmployeeHierarchyServiceTest {
         assertFalse(employeeHierarchyService.isValidList(allEmployees));
     }
 
+    @Test
+    public void testValidationReportListsEveryViolation() {
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Jamie", 150));
+        allEmployees.add(new Employee("", 100, 150));
+        allEmployees.add(new Employee("Alan", 100, 150));
+        allEmployees.add(new Employee("Martin", -5, 150));
+        allEmployees.add(new Employee("Alex", 275, 275));
+        allEmployees.add(new Employee("Steve", 400, 999));
+        allEmployees.add(new Employee("David", 190));
+
+        ValidationReport report = employeeHierarchyService.validate(allEmployees);
+        assertFalse(report.isValid());
+        assertEquals(6, report.getViolations().size());
+        assertArrayEquals(new int[]{1}, report.getViolation(ViolationType.INVALID_EMPLOYEE_NAME).getRows());
+        assertArrayEquals(new int[]{100}, report.getViolation(ViolationType.DUPLICATE_EMPLOYEE_ID).getEmployeeIds());
+        assertArrayEquals(new int[]{2}, report.getViolation(ViolationType.DUPLICATE_EMPLOYEE_ID).getRows());
+        assertArrayEquals(new int[]{-5}, report.getViolation(ViolationType.INVALID_EMPLOYEE_ID).getEmployeeIds());
+        assertArrayEquals(new int[]{275}, report.getViolation(ViolationType.EMPLOYEE_IS_OWN_MANAGER).getEmployeeIds());
+        assertArrayEquals(new int[]{400}, report.getViolation(ViolationType.UNKNOWN_MANAGER_ID).getEmployeeIds());
+        assertArrayEquals(new int[]{150, 190}, report.getViolation(ViolationType.MORE_THAN_ONE_CEO).getEmployeeIds());
+
+        // the same report is carried by the exception thrown when building the hierarchy
+        InvalidEmployeeListException exception = assertThrows(InvalidEmployeeListException.class,
+                () -> employeeHierarchyService.getEmployeeHierarchy(allEmployees));
+        assertEquals(report.getViolations().size(), exception.getReport().getViolations().size());
+    }
+
+    @Test
+    public void testReportingCyclesAndOrphans() {
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Jamie", 150));
+        allEmployees.add(new Employee("Alan", 100, 150));
+        allEmployees.add(new Employee("Martin", 1, 2));
+        allEmployees.add(new Employee("Alex", 2, 3));
+        allEmployees.add(new Employee("Steve", 3, 1));
+        allEmployees.add(new Employee("David", 4, 2));
+        allEmployees.add(new Employee("Sam", 5, 4));
+        allEmployees.add(new Employee("Kim", 6, 999));
+        allEmployees.add(new Employee("Lee", 7, 6));
+        allEmployees.add(new Employee("Max", 8, 7));
+
+        // the cycle in reporting order, then every group of employees cut off from the CEO
+        ValidationReport report = employeeHierarchyService.validate(allEmployees);
+        assertEquals(4, report.getViolations().size());
+        assertArrayEquals(new int[]{6}, report.getViolation(ViolationType.UNKNOWN_MANAGER_ID).getEmployeeIds());
+        assertArrayEquals(new int[]{1, 2, 3}, report.getViolation(ViolationType.REPORTING_CYCLE).getEmployeeIds());
+        assertArrayEquals(new int[]{2, 3, 4}, report.getViolation(ViolationType.REPORTING_CYCLE).getRows());
+        ValidationReport.Violation underCycle = report.getViolations().get(2);
+        assertEquals(ViolationType.ORPHANED_EMPLOYEE, underCycle.getType());
+        assertArrayEquals(new int[]{4, 5}, underCycle.getEmployeeIds());
+        assertTrue(underCycle.getDetail().contains("cycle of employee 1"));
+        ValidationReport.Violation underUnknownManager = report.getViolations().get(3);
+        assertArrayEquals(new int[]{7, 8}, underUnknownManager.getEmployeeIds());
+        assertArrayEquals(new int[]{8, 9}, underUnknownManager.getRows());
+        assertTrue(underUnknownManager.getDetail().contains("employee 6"));
+
+        // rejected before a hierarchy is built
+        assertThrows(InvalidEmployeeListException.class, () -> employeeHierarchyService.getCompactHierarchy(allEmployees));
+
+        // a long chain hanging from a cycle is followed without recursion
+        int size = 200_000;
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Employee1", 1));
+        allEmployees.add(new Employee("Employee2", 2, 1));
+        allEmployees.add(new Employee("Employee3", 3, 4));
+        for (int id = 4; id <= size; id++) {
+            allEmployees.add(new Employee("Employee" + id, id, id - 1));
+        }
+        report = employeeHierarchyService.validate(allEmployees);
+        assertEquals(2, report.getViolations().size());
+        assertArrayEquals(new int[]{3, 4}, report.getViolation(ViolationType.REPORTING_CYCLE).getEmployeeIds());
+        assertEquals(size - 4, report.getViolation(ViolationType.ORPHANED_EMPLOYEE).getEmployeeIds().length);
+
+        readFile("/invalid/EmployeesNotCoveredInHierarchy.json");
+        assertArrayEquals(new int[]{400, 190}, employeeHierarchyService.validate(allEmployees)
+                .getViolation(ViolationType.REPORTING_CYCLE).getEmployeeIds());
+    }
+
+    @Test
+    public void testValidOrganizationHasNoViolations() {
+        readFile("/CorrectEmployeeData.json");
+        assertTrue(employeeHierarchyService.validate(allEmployees).isValid());
+    }
+
     @Test
     public void testCEOWithNoSubordinates() {
         // CEO who is the only one in the hierarchy
@@ -195,6 +319,456 @@ public class EmployeeHierarchyServiceTest {
 
     }
 
+    @Test
+    public void testSameHierarchyAsReferenceService() {
+        // a larger organization, shuffled so subordinates don't come in id order
+        generateOrganization(2000);
+        EmployeeHierarchy expected = new MomentonEmployeeHierarchyService().getEmployeeHierarchy(allEmployees);
+        EmployeeHierarchy actual = employeeHierarchyService.getEmployeeHierarchy(allEmployees);
+
+        // toString covers names, ids, manager ids and the order of subordinates on every level
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.getDepth(), actual.getDepth());
+
+        // the compact hierarchy renders exactly like the object hierarchy
+        CompactHierarchy compact = employeeHierarchyService.getCompactHierarchy(allEmployees);
+        assertEquals(EmployeeHierarchyFormatter.getHTMLRepresentation(expected),
+                EmployeeHierarchyFormatter.getHTMLRepresentation(compact));
+        assertEquals(EmployeeHierarchyFormatter.getTextRepresentation(expected),
+                EmployeeHierarchyFormatter.getTextRepresentation(compact));
+    }
+
+    @Test
+    public void testCompactHierarchy() {
+        // Test Correct data provided in the requirements
+        readFile("/CorrectEmployeeData.json");
+        CompactHierarchy hierarchy = employeeHierarchyService.getCompactHierarchy(allEmployees);
+
+        assertEquals(6, hierarchy.getSize());
+        assertEquals(3, hierarchy.getDepth());
+        // employees are stored in pre-order with subordinates sorted by id
+        int[] expectedIds = {150, 100, 220, 275, 400, 190};
+        int[] expectedLevels = {0, 1, 2, 2, 1, 2};
+        int[] expectedSubtreeSizes = {6, 3, 1, 1, 2, 1};
+        for (int position = 0; position < hierarchy.getSize(); position++) {
+            assertEquals(expectedIds[position], hierarchy.getEmployeeId(position));
+            assertEquals(expectedLevels[position], hierarchy.getLevel(position));
+            assertEquals(expectedSubtreeSizes[position], hierarchy.getSubtreeSize(position));
+            assertEquals(position, hierarchy.getPosition(expectedIds[position]));
+        }
+        assertEquals("Jamie", hierarchy.getName(0));
+        assertEquals(CompactHierarchy.NO_MANAGER, hierarchy.getManagerId(0));
+        assertEquals(400, hierarchy.getManagerId(hierarchy.getPosition(190)));
+        assertEquals(2, hierarchy.getSubordinateCount(0));
+        assertEquals(hierarchy.getPosition(400), hierarchy.getSubordinate(0, 1));
+        assertEquals(CompactHierarchy.NO_POSITION, hierarchy.getPosition(999));
+    }
+
+    @Test
+    public void testDeepReportingChain() {
+        // every employee reports to the previous one, far deeper than a recursive walk could go
+        int size = 200_000;
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Employee1", 1));
+        for (int id = 2; id <= size; id++) {
+            allEmployees.add(new Employee("Employee" + id, id, id - 1));
+        }
+        EmployeeHierarchy hierarchy = employeeHierarchyService.getEmployeeHierarchy(allEmployees);
+        assertEquals(size, hierarchy.getDepth());
+
+        // the reference service builds without recursion as well
+        allEmployees = allEmployees.subList(0, 5_000);
+        hierarchy = new MomentonEmployeeHierarchyService().getEmployeeHierarchy(allEmployees);
+        assertEquals(5_000, hierarchy.getDepth());
+    }
+
+    @Test
+    public void testStreamedEmployees() throws Exception {
+        // reading the json as a stream gives the same hierarchy as binding it to a list first
+        readFile("/CorrectEmployeeData.json");
+        CompactHierarchy expected = employeeHierarchyService.getCompactHierarchy(allEmployees);
+        try (InputStream employeesJson = System.class.getResourceAsStream("/CorrectEmployeeData.json")) {
+            CompactHierarchy actual = employeeHierarchyService.getCompactHierarchy(employeesJson);
+            assertEquals(EmployeeHierarchyFormatter.getTextRepresentation(expected),
+                    EmployeeHierarchyFormatter.getTextRepresentation(actual));
+            assertEquals(expected.toEmployeeHierarchy().toString(), actual.toEmployeeHierarchy().toString());
+        }
+
+        // invalid lists are reported the same way
+        try (InputStream employeesJson = System.class.getResourceAsStream("/invalid/InvalidManagerId.json")) {
+            InvalidEmployeeListException exception = assertThrows(InvalidEmployeeListException.class,
+                    () -> employeeHierarchyService.getCompactHierarchy(employeesJson));
+            assertNotNull(exception.getReport().getViolation(ViolationType.UNKNOWN_MANAGER_ID));
+        }
+
+        // anything but an array of employees can't be read
+        assertThrows(IOException.class, () -> employeeHierarchyService.getCompactHierarchy(
+                new ByteArrayInputStream("{\"name\": \"Jamie\"}".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testBinaryEmployees() throws Exception {
+        // reading the binary format gives the same hierarchy as reading the json
+        readFile("/CorrectEmployeeData.json");
+        CompactHierarchy expected = employeeHierarchyService.getCompactHierarchy(allEmployees);
+        CompactHierarchy actual = employeeHierarchyService.getCompactHierarchyFromBinary(toBinary(allEmployees));
+        assertEquals(EmployeeHierarchyFormatter.getTextRepresentation(expected),
+                EmployeeHierarchyFormatter.getTextRepresentation(actual));
+
+        // the hierarchy is written in pre-order along with the level of every employee
+        generateOrganization(10_000);
+        allEmployees.add(new Employee("\u00c9milie \ud83d\ude00", 30_003, allEmployees.get(0).getEmployeeId()));
+        CompactHierarchy hierarchy = employeeHierarchyService.getCompactHierarchyFromBinary(toBinary(allEmployees));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EmployeeBinaryFormat.writeHierarchy(hierarchy, output);
+        int[] position = {0};
+        int count = EmployeeBinaryFormat.readHierarchy(new ByteArrayInputStream(output.toByteArray()),
+                (name, employeeId, level) -> {
+                    assertEquals(hierarchy.getEmployeeId(position[0]), employeeId);
+                    assertEquals(hierarchy.getLevel(position[0]), level);
+                    assertEquals(hierarchy.getName(position[0]), name);
+                    position[0]++;
+                });
+        assertEquals(hierarchy.getSize(), count);
+
+        // invalid lists fail the same way as the json ones (null ids and names can't be bound to an Employee)
+        for (String fileName : new String[]{"AllEmployeesHaveManagers", "CEOWithNoSubordinates", "EmployeeHisOwnManager",
+                "EmployeesNotCoveredInHierarchy", "InvalidEmployeeName", "InvalidManagerId", "NegativeEmployeeId",
+                "OnlyTheCEOInHierarchy", "TwoEmployeesWithNoManager",
+                "TwoEmployeesWithSameId", "ZeroEmployeeId"}) {
+            readFile("/invalid/" + fileName + ".json");
+            InputStream employees = toBinary(allEmployees);
+            assertEquals(failureOf(() -> employeeHierarchyService.getCompactHierarchy(allEmployees)),
+                    failureOf(() -> employeeHierarchyService.getCompactHierarchyFromBinary(employees)), fileName);
+        }
+
+        // truncated, trailing or foreign data can't be read
+        byte[] employees = toByteArray(allEmployees);
+        assertThrows(BinaryFormatException.class, () -> employeeHierarchyService.getCompactHierarchyFromBinary(
+                new ByteArrayInputStream(Arrays.copyOf(employees, employees.length - 1))));
+        assertThrows(BinaryFormatException.class, () -> employeeHierarchyService.getCompactHierarchyFromBinary(
+                new ByteArrayInputStream(Arrays.copyOf(employees, employees.length + 1))));
+        assertThrows(BinaryFormatException.class, () -> employeeHierarchyService.getCompactHierarchyFromBinary(
+                new ByteArrayInputStream(output.toByteArray())));
+    }
+
+    @Test
+    public void testBatchOfOrganizations() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        StringBuilder organizations = new StringBuilder("{");
+        organizations.append("\"Correct\": ").append(readResource("/CorrectEmployeeData.json"));
+        organizations.append(", \"InvalidManagerId\": ").append(readResource("/invalid/InvalidManagerId.json"));
+        organizations.append(", \"Malformed\": [{\"employeeId\": \"one\"}]");
+        List<List<Employee>> generated = new ArrayList<>();
+        for (int size = 1; size <= 200; size++) {
+            generateOrganization(size);
+            generated.add(allEmployees);
+            organizations.append(", \"Generated").append(size).append("\": ").append(mapper.writeValueAsString(allEmployees));
+        }
+        organizations.append("}");
+
+        HierarchyCache.Statistics cacheBefore = hierarchyCache.getStatistics();
+        Map<String, HierarchyBatchService.Result> results = hierarchyBatchService.getHierarchies(
+                new ByteArrayInputStream(organizations.toString().getBytes(StandardCharsets.UTF_8)));
+        assertEquals(203, results.size());
+        // a batch neither adds to nor evicts from the cache of interactive requests
+        assertEquals(cacheBefore.getEntries(), hierarchyCache.getStatistics().getEntries());
+        assertEquals(cacheBefore.getEvictions(), hierarchyCache.getStatistics().getEvictions());
+
+        // every organization gets its own result, in the order of the request
+        readFile("/CorrectEmployeeData.json");
+        assertTrue(results.get("Correct").isValid());
+        assertEquals(employeeHierarchyService.getEmployeeHierarchy(allEmployees).toString(),
+                results.get("Correct").getHierarchy().toString());
+        assertFalse(results.get("InvalidManagerId").isValid());
+        assertNotNull(results.get("InvalidManagerId").getValidationReport().getViolation(ViolationType.UNKNOWN_MANAGER_ID));
+        assertFalse(results.get("Malformed").isValid());
+        assertNotNull(results.get("Malformed").getError());
+        List<String> names = new ArrayList<>(results.keySet());
+        assertEquals("CEO Does not have any subordinates", results.get("Generated1").getError());
+        for (int size = 2; size <= 200; size++) {
+            assertEquals("Generated" + size, names.get(size + 2));
+            assertEquals(employeeHierarchyService.getEmployeeHierarchy(generated.get(size - 1)).toString(),
+                    results.get("Generated" + size).getHierarchy().toString());
+        }
+
+        // the request as a whole must be an object naming each organization once
+        assertThrows(IOException.class, () -> hierarchyBatchService.getHierarchies(
+                new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8))));
+        assertThrows(IOException.class, () -> hierarchyBatchService.getHierarchies(
+                new ByteArrayInputStream("{\"A\": [], \"A\": []}".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testTopLevelsAndCursors() {
+        generateOrganization(2000);
+        CompactHierarchy hierarchy = employeeHierarchyService.getCompactHierarchy(allEmployees);
+
+        HierarchyNode ceo = hierarchyPager.getTopLevels(hierarchy, 2, 10);
+        assertEquals(1999, ceo.getHeadcount());
+        assertEquals(hierarchy.getSubordinateCount(0), ceo.getSubordinateCount());
+        assertEquals(Math.min(10, ceo.getSubordinateCount()), ceo.getSubordinates().size());
+        assertEquals(ceo.getSubordinateCount() > 10, ceo.getCursor() != null);
+
+        // the cursors outlive more unpaged hierarchies than the cache has entries
+        List<Employee> pagedEmployees = allEmployees;
+        for (int size = 2; size <= 100; size++) {
+            generateOrganization(size);
+            employeeHierarchyService.getCompactHierarchy(allEmployees);
+        }
+        allEmployees = pagedEmployees;
+
+        // following every cursor visits every employee once, with the headcount of their subtree
+        List<HierarchyNode> pending = new ArrayList<>(Collections.singletonList(ceo));
+        Set<Integer> visited = new HashSet<>();
+        while (!pending.isEmpty()) {
+            HierarchyNode node = pending.remove(pending.size() - 1);
+            assertTrue(visited.add(node.getEmployeeId()));
+            int position = hierarchy.getPosition(node.getEmployeeId());
+            assertEquals(hierarchy.getSubtreeSize(position) - 1, node.getHeadcount());
+            assertEquals(hierarchy.getLevel(position), node.getLevel());
+            if (node.getSubordinates() != null)
+                pending.addAll(node.getSubordinates());
+            for (String cursor = node.getCursor(); cursor != null; ) {
+                HierarchyPage page = hierarchyPager.getPage(cursor, 1, 7);
+                assertTrue(page.getSubordinates().size() <= 7);
+                pending.addAll(page.getSubordinates());
+                cursor = page.getCursor();
+            }
+        }
+        assertEquals(2000, visited.size());
+
+        assertThrows(UnknownCursorException.class, () -> hierarchyPager.getPage("not a cursor", 1, 10));
+        assertThrows(InvalidPageRequestException.class, () -> hierarchyPager.getTopLevels(hierarchy, 0, 10));
+        assertThrows(InvalidPageRequestException.class,
+                () -> hierarchyPager.getTopLevels(hierarchy, 1, HierarchyPager.MAX_PAGE_SIZE + 1));
+    }
+
+    @Test
+    public void testFlatHierarchyJson() throws Exception {
+        generateOrganization(2000);
+        CompactHierarchy hierarchy = employeeHierarchyService.getCompactHierarchy(allEmployees);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FlatHierarchyJson.write(hierarchy, out);
+
+        // the rows come back in pre-order, one per employee
+        int[] position = {0};
+        int count = FlatHierarchyJson.read(new ByteArrayInputStream(out.toByteArray()),
+                (id, name, managerId, depth, subtreeSize) -> {
+                    int expected = position[0]++;
+                    assertEquals(hierarchy.getEmployeeId(expected), id);
+                    assertEquals(hierarchy.getName(expected), name);
+                    assertEquals(expected == 0 ? null : hierarchy.getManagerId(expected), managerId);
+                    assertEquals(hierarchy.getLevel(expected), depth);
+                    assertEquals(hierarchy.getSubtreeSize(expected), subtreeSize);
+                });
+        assertEquals(2000, count);
+
+        // a reporting chain far deeper than nested JSON could be written or read
+        int size = 200_000;
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Employee1", 1));
+        for (int id = 2; id <= size; id++) {
+            allEmployees.add(new Employee("Employee" + id, id, id - 1));
+        }
+        out.reset();
+        FlatHierarchyJson.write(employeeHierarchyService.getCompactHierarchy(allEmployees), out);
+        int[] deepest = {-1};
+        count = FlatHierarchyJson.read(new ByteArrayInputStream(out.toByteArray()),
+                (id, name, managerId, depth, subtreeSize) -> {
+                    assertEquals(deepest[0] + 1, depth);
+                    assertEquals(size - depth, subtreeSize);
+                    deepest[0] = depth;
+                });
+        assertEquals(size, count);
+        assertEquals(size - 1, deepest[0]);
+
+        assertThrows(IOException.class, () -> FlatHierarchyJson.read(
+                new ByteArrayInputStream("[{\"id\": 1, \"name\": \"Jamie\"}]".getBytes(StandardCharsets.UTF_8)),
+                (id, name, managerId, depth, subtreeSize) -> fail("row without depth")));
+    }
+
+    @Test
+    public void testHierarchyDiff() throws Exception {
+        readFile("/CorrectEmployeeData.json");
+        List<Employee> before = allEmployees;
+        List<Employee> after = new ArrayList<>();
+        after.add(new Employee("Jamie", 150));
+        after.add(new Employee("Alan Smith", 100, 150));
+        after.add(new Employee("Alex", 275, 100));
+        // Steve moves under Alan along with David, who keeps reporting to Steve
+        after.add(new Employee("Steve", 400, 100));
+        after.add(new Employee("David", 190, 400));
+        after.add(new Employee("Kim", 500, 190));
+
+        ObjectMapper mapper = new ObjectMapper();
+        String request = "{\"before\": " + mapper.writeValueAsString(before)
+                + ", \"after\": " + mapper.writeValueAsString(after) + "}";
+        HierarchyDiff diff = hierarchyDiffService.getDiff(new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(4, diff.getChangeCount());
+        assertEquals(new Employee("Kim", 500, 190), diff.getJoined().get(0));
+        assertEquals("Kim", diff.getJoined().get(0).getName());
+        assertEquals(Integer.valueOf(190), diff.getJoined().get(0).getManagerId());
+        assertEquals(Integer.valueOf(220), diff.getLeft().get(0).getEmployeeId());
+        assertEquals("Alan", diff.getRenamed().get(0).getPreviousName());
+        assertEquals("Alan Smith", diff.getRenamed().get(0).getName());
+        HierarchyDiff.Move move = diff.getMoved().get(0);
+        assertEquals(400, move.getEmployeeId());
+        assertEquals(Integer.valueOf(150), move.getPreviousManagerId());
+        assertEquals(Integer.valueOf(100), move.getManagerId());
+        assertEquals(3, move.getSubtreeSize());
+
+        // the same hierarchy has no changes, and every employee joins an organization that had none
+        CompactHierarchy hierarchy = employeeHierarchyService.getCompactHierarchy(after);
+        assertEquals(0, hierarchyDiffService.getDiff(hierarchy, hierarchy).getChangeCount());
+        assertEquals(6, hierarchyDiffService.getDiff(null, hierarchy).getJoined().size());
+        assertEquals(6, hierarchyDiffService.getDiff(hierarchy, null).getLeft().size());
+
+        assertThrows(IOException.class, () -> hierarchyDiffService.getDiff(new ByteArrayInputStream(
+                ("{\"before\": " + mapper.writeValueAsString(before) + "}").getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void testCachedHierarchy() {
+        generateOrganization(2000);
+        CompactHierarchy hierarchy = employeeHierarchyService.getCompactHierarchy(allEmployees);
+        long hits = hierarchyCache.getStatistics().getHits();
+
+        // the same employees in another order reuse the hierarchy built before
+        List<Employee> shuffled = new ArrayList<>(allEmployees);
+        Collections.shuffle(shuffled, new Random(7));
+        assertSame(hierarchy, employeeHierarchyService.getCompactHierarchy(shuffled));
+        assertEquals(hits + 1, hierarchyCache.getStatistics().getHits());
+        // but every caller gets Employee/Manager objects of their own, so changing them affects no one else
+        EmployeeHierarchy employeeHierarchy = employeeHierarchyService.getEmployeeHierarchy(shuffled);
+        EmployeeHierarchy otherEmployeeHierarchy = employeeHierarchyService.getEmployeeHierarchy(shuffled);
+        assertNotSame(employeeHierarchy, otherEmployeeHierarchy);
+        String cEOName = otherEmployeeHierarchy.getCEO().getName();
+        employeeHierarchy.getCEO().setName("Changed");
+        employeeHierarchy.getCEO().getSubordinates().clear();
+        assertEquals(cEOName, employeeHierarchyService.getEmployeeHierarchy(shuffled).getCEO().getName());
+        assertFalse(employeeHierarchyService.getEmployeeHierarchy(shuffled).getCEO().getSubordinates().isEmpty());
+        assertEquals(EmployeeHierarchyFormatter.getHTMLRepresentation(hierarchy),
+                hierarchyCache.getRendering(hierarchy, EmployeeHierarchyFormatter.DisplayType.HTML));
+
+        // any change to an employee is a different list
+        Employee renamed = shuffled.get(0);
+        shuffled.set(0, new Employee(renamed.getName() + "2", renamed.getEmployeeId(), renamed.getManagerId()));
+        CompactHierarchy other = employeeHierarchyService.getCompactHierarchy(shuffled);
+        assertNotSame(hierarchy, other);
+        assertEquals(renamed.getName() + "2", other.getName(other.getPosition(renamed.getEmployeeId())));
+
+        // a hit compares the employees, so a list colliding with the key of a cached one isn't served its hierarchy
+        CompactHierarchy.Builder changed = new CompactHierarchy.Builder();
+        shuffled.forEach(changed::add);
+        assertNull(hierarchyCache.get(hierarchyCache.getCachedKey(hierarchy), changed));
+        CompactHierarchy.Builder same = new CompactHierarchy.Builder();
+        allEmployees.forEach(same::add);
+        assertSame(hierarchy, hierarchyCache.get(hierarchyCache.getCachedKey(hierarchy), same));
+        assertTrue(hierarchy.hasSameEmployees(same.build()));
+        assertFalse(hierarchy.hasSameEmployees(other));
+    }
+
+    @Test
+    public void testParallelBuild() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // a wide organization, a deep chain and a mix of both
+            Random random = new Random(12);
+            int size = 200_000;
+            for (int shape = 0; shape < 3; shape++) {
+                CompactHierarchy.Builder builder = new CompactHierarchy.Builder(size);
+                builder.add("Employee1", 1, CompactHierarchy.NO_MANAGER);
+                for (int id = 2; id <= size; id++) {
+                    int managerId = shape == 0 ? 1 + random.nextInt(Math.min(id - 1, 50))
+                            : shape == 1 ? id - 1
+                            : id % 3 == 0 ? id - 1 : 1 + random.nextInt(id - 1);
+                    builder.add("Employee" + id, id, managerId);
+                }
+                CompactHierarchy expected = builder.build();
+                CompactHierarchy actual = builder.build(pool);
+                assertEquals(expected.getDepth(), actual.getDepth());
+                for (int position = 0; position < size; position++) {
+                    assertEquals(expected.getEmployeeId(position), actual.getEmployeeId(position));
+                    assertEquals(expected.getParent(position), actual.getParent(position));
+                    assertEquals(expected.getLevel(position), actual.getLevel(position));
+                    assertEquals(expected.getSubtreeSize(position), actual.getSubtreeSize(position));
+                    assertEquals(expected.getSubordinateCount(position), actual.getSubordinateCount(position));
+                    assertEquals(expected.getName(position), actual.getName(position));
+                    assertEquals(position, actual.getPosition(actual.getEmployeeId(position)));
+                    if (expected.getSubordinateCount(position) > 0)
+                        assertEquals(expected.getSubordinate(position, 0), actual.getSubordinate(position, 0));
+                }
+            }
+
+            // employees reporting to each other in a cycle are never reached from the CEO
+            CompactHierarchy.Builder builder = new CompactHierarchy.Builder();
+            builder.add("Jamie", 150, CompactHierarchy.NO_MANAGER).add("Alan", 100, 150)
+                    .add("Martin", 220, 275).add("Alex", 275, 220);
+            RuntimeException exception = assertThrows(RuntimeException.class, () -> builder.build(pool));
+            assertEquals("Some Employees are out of the hierarchy", exception.getMessage());
+
+            // a build past the deadline of its request stops instead of running to the end
+            CompactHierarchy.Builder interrupted = new CompactHierarchy.Builder();
+            interrupted.add("Jamie", 150, CompactHierarchy.NO_MANAGER).add("Alan", 100, 150);
+            Thread.currentThread().interrupt();
+            try {
+                assertThrows(CancellationException.class, interrupted::build);
+                assertThrows(CancellationException.class, () -> interrupted.build(pool));
+            } finally {
+                Thread.interrupted();
+            }
+            assertEquals(2, interrupted.build(pool).getSize());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRenderingWideRows() {
+        // a chain deeper than the precomputed runs of empty cells
+        int size = 150;
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Employee1", 1));
+        for (int id = 2; id <= size; id++) {
+            allEmployees.add(new Employee("Employee" + id, id, id - 1));
+        }
+        StringBuilder expected = new StringBuilder("\nEmployeeHierarchy:\nEmployee1\t|\n");
+        for (int level = 1; level < size; level++) {
+            for (int column = 0; column < size; column++) {
+                expected.append(column == level ? "Employee" + (level + 1) + "\t|" : "\t\t|");
+            }
+            expected.append("\n");
+        }
+        EmployeeHierarchy hierarchy = employeeHierarchyService.getEmployeeHierarchy(allEmployees);
+        assertEquals(expected.toString(), EmployeeHierarchyFormatter.getTextRepresentation(hierarchy));
+    }
+
+    @Test
+    public void testConcurrentRendering() throws Exception {
+        generateOrganization(2000);
+        CompactHierarchy hierarchy = employeeHierarchyService.getCompactHierarchy(allEmployees);
+        String expectedHTML = EmployeeHierarchyFormatter.getHTMLRepresentation(hierarchy);
+        String expectedText = EmployeeHierarchyFormatter.getTextRepresentation(hierarchy);
+
+        // HTML and text requests rendering at the same time must not affect each other
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int request = 0; request < 64; request++) {
+                boolean html = request % 2 == 0;
+                results.add(executor.submit(() -> html
+                        ? expectedHTML.equals(EmployeeHierarchyFormatter.getHTMLRepresentation(hierarchy))
+                        : expectedText.equals(EmployeeHierarchyFormatter.getTextRepresentation(hierarchy))));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     // helper method that reads a given json file and fill the data into the allEmployees list to be used in tests
     private void readFile(String fileName) {
         ObjectMapper mapper = new ObjectMapper();
@@ -206,4 +780,49 @@ public class EmployeeHierarchyServiceTest {
         }
     }
 
-}
\ No newline at end of file
+    private static String readResource(String fileName) throws IOException {
+        try (InputStream input = System.class.getResourceAsStream(fileName)) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int count; (count = input.read(buffer)) >= 0; ) {
+                output.write(buffer, 0, count);
+            }
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static InputStream toBinary(List<Employee> employees) throws IOException {
+        return new ByteArrayInputStream(toByteArray(employees));
+    }
+
+    private static byte[] toByteArray(List<Employee> employees) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EmployeeBinaryFormat.writeEmployees(employees, output);
+        return output.toByteArray();
+    }
+
+    // the violations of an invalid list, or the message of the error thrown while building its hierarchy
+    private static String failureOf(Executable build) {
+        RuntimeException exception = assertThrows(RuntimeException.class, build);
+        return exception instanceof InvalidEmployeeListException
+                ? ((InvalidEmployeeListException) exception).getReport().toString() : exception.getMessage();
+    }
+
+    // helper method that fills the allEmployees list with a random valid organization of the given size
+    private void generateOrganization(int size) {
+        Random random = new Random(size);
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; id <= size; id++) {
+            ids.add(id * 3);
+        }
+        Collections.shuffle(ids, random);
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Employee" + ids.get(0), ids.get(0)));
+        for (int index = 1; index < size; index++) {
+            Integer managerId = ids.get(random.nextInt(index));
+            allEmployees.add(new Employee("Employee" + ids.get(index), ids.get(index), managerId));
+        }
+        Collections.shuffle(allEmployees, random);
+    }
+
+}
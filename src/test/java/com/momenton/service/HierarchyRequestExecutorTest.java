@@ -0,0 +1,110 @@
+package com.momenton.service;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class HierarchyRequestExecutorTest {
+
+    private static final long SMALL = 100;
+
+    @Autowired
+    private HierarchyRequestExecutor hierarchyRequestExecutor;
+
+    @Test
+    public void testLargeRequestsAreRejectedOnceTheirQueueIsFull() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<DeferredResult<Integer>> admitted = new ArrayList<>();
+        RequestRejectedException rejected = null;
+        try {
+            // requests of unknown size count as large
+            while (rejected == null && admitted.size() < 1000) {
+                try {
+                    admitted.add(hierarchyRequestExecutor.submit(null, () -> {
+                        release.await();
+                        return 1;
+                    }));
+                } catch (RequestRejectedException e) {
+                    rejected = e;
+                }
+            }
+            assertNotNull(rejected);
+
+            // small requests are still answered while every large worker is busy
+            assertEquals(2, resultOf(hierarchyRequestExecutor.submit(SMALL, () -> 2)));
+        } finally {
+            release.countDown();
+        }
+        for (DeferredResult<Integer> result : admitted) {
+            assertEquals(1, resultOf(result));
+        }
+    }
+
+    @Test
+    public void testErrorsBecomeTheResult() throws Exception {
+        IOException exception = new IOException("Unreadable employee list");
+        assertSame(exception, resultOf(hierarchyRequestExecutor.submit(SMALL, () -> {
+            throw exception;
+        })));
+    }
+
+    @Test
+    public void testRequestsAreCancelledAtTheirDeadline() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        hierarchyRequestExecutor.setDeadlineMillis(100);
+        try {
+            DeferredResult<Integer> result = hierarchyRequestExecutor.submit(SMALL, () -> {
+                try {
+                    Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                return 3;
+            });
+            assertTrue(resultOf(result) instanceof RequestTimeoutException);
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+        } finally {
+            hierarchyRequestExecutor.setDeadlineMillis(60000);
+        }
+    }
+
+    @Test
+    public void testCommitsAreNotInterruptedAtTheirDeadline() throws Exception {
+        hierarchyRequestExecutor.setDeadlineMillis(100);
+        try {
+            DeferredResult<Integer> result = hierarchyRequestExecutor.submit(SMALL, () -> 4, work -> {
+                // sleeps past the deadline, the commit is left to finish
+                Thread.sleep(500);
+                return work + 1;
+            });
+            assertEquals(5, resultOf(result));
+        } finally {
+            hierarchyRequestExecutor.setDeadlineMillis(60000);
+        }
+    }
+
+    // waits for the result to be set, the servlet container would dispatch it instead
+    private static Object resultOf(DeferredResult<?> result) throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!result.hasResult() && System.nanoTime() < end) {
+            Thread.sleep(1);
+        }
+        assertTrue(result.hasResult());
+        return result.getResult();
+    }
+
+}
@@ -0,0 +1,593 @@
+package com.momenton.service;
+
+import com.momenton.model.CompactHierarchy;
+import com.momenton.model.Employee;
+import com.momenton.model.HierarchySnapshot;
+import com.momenton.model.ValidationReport.ViolationType;
+import com.momenton.service.ChangeJournal.Change;
+import com.momenton.util.EmployeeHierarchyFormatter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+public class HierarchyStoreTest {
+
+    @Autowired
+    private EmployeeHierarchyService employeeHierarchyService;
+
+    @Autowired
+    private HierarchyStore hierarchyStore;
+
+    @Autowired
+    private HierarchyStorePersistence hierarchyStorePersistence;
+
+    private List<Employee> allEmployees = new ArrayList<>();
+
+    @Test
+    public void testChangesMatchRebuiltHierarchy() {
+        loadOrganization();
+
+        // add a new employee under Alan
+        hierarchyStore.add("Sam", 250, 100);
+        allEmployees.add(new Employee("Sam", 250, 100));
+        assertSameAsRebuilt();
+
+        // move Steve, along with his subordinates, under Sam
+        assertEquals(Integer.valueOf(250), hierarchyStore.move(400, 250).getManagerId());
+        setManager(400, 250);
+        assertSameAsRebuilt();
+
+        // rename Martin
+        hierarchyStore.rename(220, "Marty");
+        allEmployees.set(indexOf(220), new Employee("Marty", 220, 100));
+        assertSameAsRebuilt();
+
+        // remove Sam, Steve goes back under Alan
+        hierarchyStore.remove(250);
+        allEmployees.remove(indexOf(250));
+        setManager(400, 100);
+        assertSameAsRebuilt();
+        assertEquals(Integer.valueOf(100), hierarchyStore.getEmployee(400).getManagerId());
+        assertNull(hierarchyStore.getEmployee(250));
+    }
+
+    @Test
+    public void testInvalidChangesAreRejected() {
+        loadOrganization();
+        CompactHierarchy before = hierarchyStore.getCompactHierarchy();
+
+        // checked against the loaded hierarchy
+        assertInvalidChangesRejected();
+        // moving Steve under his own manager changes nothing
+        assertEquals(Integer.valueOf(100), hierarchyStore.move(400, 100).getManagerId());
+        assertEquals(Integer.valueOf(150), hierarchyStore.move(150, null).getEmployeeId());
+
+        // nothing was changed
+        assertSame(before, hierarchyStore.getCompactHierarchy());
+
+        // checked against the nodes created by a change
+        hierarchyStore.rename(400, "Steve");
+        before = hierarchyStore.getCompactHierarchy();
+        assertInvalidChangesRejected();
+        assertSame(before, hierarchyStore.getCompactHierarchy());
+    }
+
+    @Test
+    public void testSubtreeQueries() {
+        loadOrganization();
+        hierarchyStore.add("Sam", 250, 190);
+
+        // everyone under Alan, in pre-order
+        List<Integer> ids = new ArrayList<>();
+        for (Employee employee : hierarchyStore.getAllSubordinates(100)) {
+            ids.add(employee.getEmployeeId());
+        }
+        assertEquals(Arrays.asList(220, 275, 400, 190, 250), ids);
+        assertTrue(hierarchyStore.getAllSubordinates(250).isEmpty());
+
+        assertTrue(hierarchyStore.reportsTo(250, 150));
+        assertTrue(hierarchyStore.reportsTo(250, 400));
+        assertFalse(hierarchyStore.reportsTo(400, 250));
+        assertFalse(hierarchyStore.reportsTo(220, 400));
+        // nobody reports to themselves
+        assertFalse(hierarchyStore.reportsTo(400, 400));
+        assertRejected(ViolationType.UNKNOWN_EMPLOYEE_ID, () -> hierarchyStore.reportsTo(999, 100));
+
+        // same answers as walking up the reporting chain
+        Random random = new Random(10);
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Employee1", 1));
+        for (int id = 2; id <= 500; id++) {
+            allEmployees.add(new Employee("Employee" + id, id, 1 + random.nextInt(id - 1)));
+        }
+        hierarchyStore.load(employeeHierarchyService.getCompactHierarchy(allEmployees));
+        for (int employeeId = 1; employeeId <= 500; employeeId++) {
+            for (int managerId = 1; managerId <= 500; managerId += 7) {
+                boolean reportsTo = false;
+                for (Integer id = allEmployees.get(employeeId - 1).getManagerId(); id != null;
+                     id = allEmployees.get(id - 1).getManagerId()) {
+                    reportsTo |= id == managerId;
+                }
+                assertEquals(reportsTo, hierarchyStore.reportsTo(employeeId, managerId));
+            }
+        }
+    }
+
+    @Test
+    public void testReportingChainQueries() {
+        loadOrganization();
+        hierarchyStore.add("Sam", 250, 190);
+
+        List<Integer> ids = new ArrayList<>();
+        for (Employee manager : hierarchyStore.getReportingChain(250)) {
+            ids.add(manager.getEmployeeId());
+        }
+        assertEquals(Arrays.asList(190, 400, 100, 150), ids);
+        assertTrue(hierarchyStore.getReportingChain(150).isEmpty());
+
+        assertEquals(Integer.valueOf(100), hierarchyStore.getManagerAtLevel(250, 1).getEmployeeId());
+        assertEquals(Integer.valueOf(250), hierarchyStore.getManagerAtLevel(250, 4).getEmployeeId());
+        assertNull(hierarchyStore.getManagerAtLevel(250, 5));
+
+        assertEquals(Integer.valueOf(100), hierarchyStore.getLowestCommonManager(250, 220).getEmployeeId());
+        // the one above is the manager of both
+        assertEquals(Integer.valueOf(100), hierarchyStore.getLowestCommonManager(400, 250).getEmployeeId());
+        assertEquals(Integer.valueOf(150), hierarchyStore.getLowestCommonManager(100, 100).getEmployeeId());
+        assertNull(hierarchyStore.getLowestCommonManager(150, 250));
+
+        // same answers as comparing the reporting chains, on a random organization and on a deep chain
+        for (int size : new int[]{2_000, 50_000}) {
+            Random random = new Random(size);
+            allEmployees = new ArrayList<>();
+            allEmployees.add(new Employee("Employee1", 1));
+            for (int id = 2; id <= size; id++) {
+                int managerId = size > 2_000 ? id - 1 : 1 + random.nextInt(id - 1);
+                allEmployees.add(new Employee("Employee" + id, id, managerId));
+            }
+            hierarchyStore.load(employeeHierarchyService.getCompactHierarchy(allEmployees));
+            for (int pair = 0; pair < 200; pair++) {
+                int employeeId = 1 + random.nextInt(size);
+                int otherEmployeeId = 1 + random.nextInt(size);
+                List<Integer> chain = chainOf(employeeId);
+                List<Integer> otherChain = chainOf(otherEmployeeId);
+                // drop the common part of the chains, the manager right above it is the lowest common one
+                int common = 0;
+                while (common < chain.size() && common < otherChain.size()
+                        && chain.get(chain.size() - 1 - common).equals(otherChain.get(otherChain.size() - 1 - common))) {
+                    common++;
+                }
+                Employee expected = common == 0 ? null : hierarchyStore.getEmployee(chain.get(chain.size() - common));
+                if (expected != null && (expected.getEmployeeId() == employeeId || expected.getEmployeeId() == otherEmployeeId))
+                    expected = hierarchyStore.getEmployee(expected.getManagerId());
+                assertEquals(expected, hierarchyStore.getLowestCommonManager(employeeId, otherEmployeeId));
+
+                int level = random.nextInt(chain.size());
+                assertEquals(chain.get(chain.size() - 1 - level),
+                        hierarchyStore.getManagerAtLevel(employeeId, level).getEmployeeId());
+            }
+        }
+    }
+
+    @Test
+    public void testManyMoves() {
+        // a chain of 10000 employees turned into a flat organization one move at a time
+        int size = 10_000;
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Employee1", 1));
+        for (int id = 2; id <= size; id++) {
+            allEmployees.add(new Employee("Employee" + id, id, id - 1));
+        }
+        hierarchyStore.load(employeeHierarchyService.getCompactHierarchy(allEmployees));
+        for (int id = size; id > 2; id--) {
+            hierarchyStore.move(id, 1);
+        }
+        CompactHierarchy hierarchy = hierarchyStore.getCompactHierarchy();
+        assertEquals(2, hierarchy.getDepth());
+        assertEquals(size - 1, hierarchy.getSubordinateCount(0));
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        Random random = new Random(20);
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Employee1", 1));
+        for (int id = 2; id <= 10_000; id++) {
+            String name = id % 100 == 0 ? "\u00c9milie " + id : "Employee" + random.nextInt(50);
+            allEmployees.add(new Employee(name, id, 1 + random.nextInt(id - 1)));
+        }
+        CompactHierarchy hierarchy = employeeHierarchyService.getCompactHierarchy(allEmployees);
+
+        Path file = Files.createTempFile("hierarchy", ".snapshot");
+        try {
+            HierarchySnapshot.write(hierarchy, file);
+            CompactHierarchy loaded = HierarchySnapshot.read(file);
+            assertEquals(EmployeeHierarchyFormatter.getTextRepresentation(hierarchy),
+                    EmployeeHierarchyFormatter.getTextRepresentation(loaded));
+            assertEquals(hierarchy.getNameCount(), loaded.getNameCount());
+
+            // a loaded snapshot can be queried and changed like any other hierarchy
+            hierarchyStore.load(loaded);
+            assertEquals(hierarchy.getSize(), hierarchyStore.getSize());
+            assertEquals(allEmployees.get(99), hierarchyStore.getEmployee(100));
+            hierarchyStore.move(100, 1);
+            setManager(100, 1);
+            assertSameAsRebuilt();
+
+            // a damaged file is rejected
+            byte[] content = Files.readAllBytes(file);
+            content[content.length / 2] ^= 1;
+            Files.write(file, content);
+            assertThrows(IOException.class, () -> HierarchySnapshot.read(file));
+            Files.write(file, Arrays.copyOf(content, content.length - 1));
+            assertThrows(IOException.class, () -> HierarchySnapshot.read(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testChangeJournal() throws IOException {
+        loadOrganization();
+        Path directory = Files.createTempDirectory("hierarchy");
+        try {
+            hierarchyStorePersistence.open(directory);
+            hierarchyStorePersistence.store(employeeHierarchyService.getCompactHierarchy(allEmployees));
+            Path firstSnapshot = filesIn(directory, "*.snapshot").get(0);
+
+            hierarchyStorePersistence.add("Sam", 500, 220);
+            allEmployees.add(new Employee("Sam", 500, 220));
+            hierarchyStorePersistence.rename(190, "Dave");
+            allEmployees.set(indexOf(190), new Employee("Dave", 190, 400));
+            hierarchyStorePersistence.move(275, 220);
+            setManager(275, 220);
+            hierarchyStorePersistence.remove(400);
+            allEmployees.remove(indexOf(400));
+            setManager(190, 100);
+            assertSameAsRebuilt();
+
+            // the snapshot and the journal give back the state after the last change
+            hierarchyStorePersistence.close();
+            hierarchyStore.clear();
+            hierarchyStorePersistence.open(directory);
+            assertSameAsRebuilt();
+
+            // a record torn by a crash is dropped, the changes before it are kept
+            hierarchyStorePersistence.close();
+            Files.write(filesIn(directory, "*.journal").get(0), new byte[]{42, 0, 0, 0, 1, 2},
+                    StandardOpenOption.APPEND);
+            hierarchyStorePersistence.open(directory);
+            assertSameAsRebuilt();
+
+            // a broken record followed by complete ones is damage, not a crash, the journal isn't cut off there
+            hierarchyStorePersistence.close();
+            Path journal = filesIn(directory, "*.journal").get(0);
+            byte[] content = Files.readAllBytes(journal);
+            // the first byte of the first record's payload, after the file and record headers
+            content[16] ^= 1;
+            Files.write(journal, content);
+            assertThrows(IOException.class, () -> hierarchyStorePersistence.open(directory));
+            content[16] ^= 1;
+            Files.write(journal, content);
+            hierarchyStorePersistence.open(directory);
+            assertSameAsRebuilt();
+
+            // a journal over the limit is folded into a new snapshot in the background
+            hierarchyStorePersistence.setJournalMaxBytes(256);
+            for (int move = 0; move < 100; move++) {
+                int managerId = move % 2 == 0 ? 100 : 220;
+                hierarchyStorePersistence.move(500, managerId);
+                setManager(500, managerId);
+            }
+            hierarchyStorePersistence.close();
+            assertFalse(Files.exists(firstSnapshot));
+            hierarchyStore.clear();
+            hierarchyStorePersistence.open(directory);
+            assertSameAsRebuilt();
+        } finally {
+            hierarchyStorePersistence.close();
+            hierarchyStorePersistence.setJournalMaxBytes(64L * 1024 * 1024);
+            for (Path file : filesIn(directory, "*")) {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testTornGroupCommit() throws IOException {
+        Path file = Files.createTempFile("hierarchy", ".journal");
+        try {
+            ChangeJournal journal = ChangeJournal.open(file, (change, employeeId, managerId, name) -> fail("the journal is new"));
+            journal.awaitDurable(journal.append(Change.ADD, 500, 100, "Sam"));
+            // one group commit of three changes
+            journal.append(Change.RENAME, 500, null, "Samuel");
+            journal.append(Change.MOVE, 500, 220, null);
+            journal.awaitDurable(journal.append(Change.REMOVE, 500, null, null));
+            journal.close();
+
+            // a crash before the force of the last commit, its marker made it to the disk but not its first page
+            byte[] content = Files.readAllBytes(file);
+            int lastCommit = (int) ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).getLong(content.length - 12);
+            Arrays.fill(content, lastCommit, lastCommit + 16, (byte) 0);
+            Files.write(file, content);
+            List<Change> changes = new ArrayList<>();
+            ChangeJournal.open(file, (change, employeeId, managerId, name) -> changes.add(change)).close();
+            assertEquals(Arrays.asList(Change.ADD), changes);
+            assertEquals(lastCommit, Files.size(file));
+
+            // an incomplete commit followed by a complete one is damage, not a crash
+            journal = ChangeJournal.open(file, (change, employeeId, managerId, name) -> { });
+            journal.awaitDurable(journal.append(Change.RENAME, 500, null, "Samuel"));
+            journal.close();
+            content = Files.readAllBytes(file);
+            Arrays.fill(content, lastCommit - 16, lastCommit, (byte) 0);
+            Files.write(file, content);
+            assertThrows(IOException.class, () -> ChangeJournal.open(file, (change, employeeId, managerId, name) -> { }));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testFailedJournalWrite() throws IOException {
+        loadOrganization();
+        Path directory = Files.createTempDirectory("hierarchy");
+        AtomicBoolean failNextForce = new AtomicBoolean();
+        AtomicBoolean failNextOpen = new AtomicBoolean();
+        hierarchyStorePersistence.setChannelOpener(file -> {
+            if (failNextOpen.getAndSet(false))
+                throw new IOException("Injected open failure");
+            return new FailingChannel(ChangeJournal.FILE_CHANNELS.open(file), failNextForce);
+        });
+        try {
+            hierarchyStorePersistence.open(directory);
+            hierarchyStorePersistence.store(employeeHierarchyService.getCompactHierarchy(allEmployees));
+            Path firstSnapshot = filesIn(directory, "*.snapshot").get(0);
+
+            // a change whose journal can't be forced is saved with a snapshot of a new generation instead
+            failNextForce.set(true);
+            hierarchyStorePersistence.add("Sam", 500, 220);
+            allEmployees.add(new Employee("Sam", 500, 220));
+            assertFalse(Files.exists(firstSnapshot));
+            assertEquals(1, filesIn(directory, "*.snapshot").size());
+
+            // the journal of the new generation takes the next changes
+            hierarchyStorePersistence.rename(190, "Dave");
+            allEmployees.set(indexOf(190), new Employee("Dave", 190, 400));
+            assertSameAsRebuilt();
+
+            // if the new generation can't be started either, the change fails but stays in the store,
+            //  and the next change saves it
+            failNextForce.set(true);
+            failNextOpen.set(true);
+            assertThrows(IOException.class, () -> hierarchyStorePersistence.move(275, 220));
+            setManager(275, 220);
+            assertSameAsRebuilt();
+            hierarchyStorePersistence.remove(400);
+            allEmployees.remove(indexOf(400));
+            setManager(190, 100);
+            assertSameAsRebuilt();
+
+            hierarchyStorePersistence.close();
+            hierarchyStore.clear();
+            hierarchyStorePersistence.open(directory);
+            assertSameAsRebuilt();
+        } finally {
+            hierarchyStorePersistence.close();
+            hierarchyStorePersistence.setChannelOpener(ChangeJournal.FILE_CHANNELS);
+            for (Path file : filesIn(directory, "*")) {
+                Files.delete(file);
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private void loadOrganization() {
+        allEmployees = new ArrayList<>();
+        allEmployees.add(new Employee("Alan", 100, 150));
+        allEmployees.add(new Employee("Martin", 220, 100));
+        allEmployees.add(new Employee("Jamie", 150));
+        allEmployees.add(new Employee("Alex", 275, 100));
+        allEmployees.add(new Employee("Steve", 400, 100));
+        allEmployees.add(new Employee("David", 190, 400));
+        hierarchyStore.load(employeeHierarchyService.getCompactHierarchy(allEmployees));
+    }
+
+    private void assertSameAsRebuilt() {
+        CompactHierarchy rebuilt = employeeHierarchyService.getCompactHierarchy(allEmployees);
+        CompactHierarchy stored = hierarchyStore.getCompactHierarchy();
+        assertEquals(EmployeeHierarchyFormatter.getTextRepresentation(rebuilt),
+                EmployeeHierarchyFormatter.getTextRepresentation(stored));
+        // the stored hierarchy is laid out from the nodes without sorting, every column must still match
+        assertEquals(rebuilt.getDepth(), stored.getDepth());
+        for (int position = 0; position < rebuilt.getSize(); position++) {
+            assertEquals(rebuilt.getEmployeeId(position), stored.getEmployeeId(position));
+            assertEquals(position, stored.getPosition(stored.getEmployeeId(position)));
+            assertEquals(rebuilt.getParent(position), stored.getParent(position));
+            assertEquals(rebuilt.getLevel(position), stored.getLevel(position));
+            assertEquals(rebuilt.getSubtreeSize(position), stored.getSubtreeSize(position));
+            assertEquals(rebuilt.getSubordinateCount(position), stored.getSubordinateCount(position));
+            for (int index = 0; index < rebuilt.getSubordinateCount(position); index++) {
+                assertEquals(rebuilt.getSubordinate(position, index), stored.getSubordinate(position, index));
+            }
+        }
+    }
+
+    private void assertInvalidChangesRejected() {
+        // Alan can't report to Steve, who reports to Alan
+        assertRejected(ViolationType.REPORTING_CYCLE, () -> hierarchyStore.move(100, 400));
+        // nobody can be moved under themselves
+        assertRejected(ViolationType.EMPLOYEE_IS_OWN_MANAGER, () -> hierarchyStore.move(400, 400));
+        // the CEO is above everyone
+        assertRejected(ViolationType.REPORTING_CYCLE, () -> hierarchyStore.move(150, 190));
+        assertRejected(ViolationType.MORE_THAN_ONE_CEO, () -> hierarchyStore.move(400, null));
+        assertRejected(ViolationType.MORE_THAN_ONE_CEO, () -> hierarchyStore.add("Sam", 250, null));
+        assertRejected(ViolationType.UNKNOWN_MANAGER_ID, () -> hierarchyStore.move(400, 999));
+        assertRejected(ViolationType.UNKNOWN_EMPLOYEE_ID, () -> hierarchyStore.move(999, 100));
+        assertRejected(ViolationType.DUPLICATE_EMPLOYEE_ID, () -> hierarchyStore.add("Sam", 400, 100));
+        assertRejected(ViolationType.INVALID_EMPLOYEE_ID, () -> hierarchyStore.add("Sam", -1, 100));
+        assertRejected(ViolationType.INVALID_EMPLOYEE_NAME, () -> hierarchyStore.rename(400, ""));
+        assertRejected(ViolationType.NO_CEO, () -> hierarchyStore.remove(150));
+    }
+
+    private void assertRejected(ViolationType type, Runnable change) {
+        InvalidEmployeeListException exception = assertThrows(InvalidEmployeeListException.class, change::run);
+        assertNotNull(exception.getReport().getViolation(type));
+    }
+
+    // the employee followed by their managers up to the CEO
+    private List<Integer> chainOf(int employeeId) {
+        List<Integer> chain = new ArrayList<>();
+        for (Integer id = employeeId; id != null; id = allEmployees.get(id - 1).getManagerId()) {
+            chain.add(id);
+        }
+        return chain;
+    }
+
+    private void setManager(int employeeId, int managerId) {
+        int index = indexOf(employeeId);
+        allEmployees.set(index, new Employee(allEmployees.get(index).getName(), employeeId, managerId));
+    }
+
+    private static List<Path> filesIn(Path directory, String glob) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(files::add);
+        }
+        return files;
+    }
+
+    private int indexOf(int employeeId) {
+        for (int index = 0; index < allEmployees.size(); index++) {
+            if (allEmployees.get(index).getEmployeeId() == employeeId)
+                return index;
+        }
+        return -1;
+    }
+
+    // a file channel whose next force fails when asked to
+    private static class FailingChannel extends FileChannel {
+
+        private final FileChannel channel;
+        private final AtomicBoolean failNextForce;
+
+        private FailingChannel(FileChannel channel, AtomicBoolean failNextForce) {
+            this.channel = channel;
+            this.failNextForce = failNextForce;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failNextForce.getAndSet(false))
+                throw new IOException("Injected force failure");
+            channel.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            return channel.read(destination);
+        }
+
+        @Override
+        public long read(ByteBuffer[] destinations, int offset, int length) throws IOException {
+            return channel.read(destinations, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer destination, long position) throws IOException {
+            return channel.read(destination, position);
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            return channel.write(source);
+        }
+
+        @Override
+        public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+            return channel.write(sources, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer source, long position) throws IOException {
+            return channel.write(source, position);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel source, long position, long count) throws IOException {
+            return channel.transferFrom(source, position, count);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+    }
+
+}